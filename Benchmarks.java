@@ -0,0 +1,346 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Microbenchmarks for the parser, the interpreters and the world update.
+ * Each benchmark is warmed up and then timed over several fixed-length iterations,
+ * and the average time per operation is reported as JSON, so results from different
+ * versions can be compared by a script.
+ *
+ *   java Benchmarks [-o results.json] [-w warmupIterations] [-i iterations] [-t iterationMillis] [name filter]
+ *
+ * Only benchmarks whose name contains the filter are run.
+ */
+public class Benchmarks {
+
+    static final int[] WORLD_SIZES = { 12, 100, 1000, 4096 };
+    static final int[] BARREL_COUNTS = { 0, 10, 1000 };
+    static final int ACTIONS_PER_RUN = 10000;  // how far a program runs against the stub robot
+
+    private int warmupIterations = 5;
+    private int iterations = 10;
+    private long iterationNanos = 200_000_000L;
+    private String filter = "";
+    private final List<Result> results = new ArrayList<>();
+
+    // results are accumulated here so the JIT can't throw the benchmarked work away
+    static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        Benchmarks benchmarks = new Benchmarks();
+        PrintStream out = System.out;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-o" -> out = new PrintStream(new File(args[++i]), "UTF-8");
+            case "-w" -> benchmarks.warmupIterations = Integer.parseInt(args[++i]);
+            case "-i" -> benchmarks.iterations = Integer.parseInt(args[++i]);
+            case "-t" -> benchmarks.iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+            default -> benchmarks.filter = args[i];
+            }
+        }
+        benchmarks.runAll(new File("programs"));
+        benchmarks.writeJson(out);
+        out.flush();
+        if (out != System.out) {
+            out.close();
+        }
+    }
+
+    private void runAll(File programDir) throws IOException {
+        File[] files = programDir.listFiles((d, name) -> name.endsWith(".prog"));
+        if (files == null) {
+            System.err.println("Can't find directory '" + programDir + "'");
+            return;
+        }
+        Arrays.sort(files);
+
+        // keep anything printed (eg. the event log, if turned on) out of the results
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(PrintStream.nullOutputStream()));
+        try {
+            for (File file : files) {
+                String source = Files.readString(file.toPath());
+                Map<String, String> params = Map.of("program", file.getName());
+                run("parse", params, () -> {
+                        try {
+                            sink += new Parser().parse(source).numVars;
+                        } catch (ParserFailureException e) {
+                            sink += e.getMessage().length();
+                        }
+                });
+                run("parseReader", params, () -> {
+                        try {
+                            sink += new Parser().parse(new StringReader(source)).numVars;
+                        } catch (ParserFailureException e) {
+                            sink += e.getMessage().length();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e); // this should never run
+                        }
+                });
+            }
+            for (File file : files) {
+                ProgramNode program;
+                try {
+                    program = new Parser().parse(Files.readString(file.toPath()));
+                } catch (ParserFailureException e) {
+                    continue;
+                }
+                ProgramNode optimized = ProgramOptimizer.optimize(program);
+                CompiledProgram compiled = ProgramCompiler.compile(program);
+                ClosureProgram closures = ClosureCompiler.compile(program);
+                Map<String, String> params = Map.of("program", file.getName());
+                run("print", params, () -> {
+                        sink += program.toString().length();
+                });
+                run("executeTree", params, () -> {
+                        StubRobot robot = new StubRobot(ACTIONS_PER_RUN);
+                        try {
+                            program.execute(robot);
+                        } catch (RobotInterruptedException e) {
+                        }
+                        sink += robot.calls;
+                });
+                run("executeOptimized", params, () -> {
+                        StubRobot robot = new StubRobot(ACTIONS_PER_RUN);
+                        try {
+                            optimized.execute(robot);
+                        } catch (RobotInterruptedException e) {
+                        }
+                        sink += robot.calls;
+                });
+                run("executeBytecode", params, () -> {
+                        StubRobot robot = new StubRobot(ACTIONS_PER_RUN);
+                        try {
+                            compiled.execute(robot);
+                        } catch (RobotInterruptedException e) {
+                        }
+                        sink += robot.calls;
+                });
+                run("executeClosure", params, () -> {
+                        StubRobot robot = new StubRobot(ACTIONS_PER_RUN);
+                        try {
+                            closures.execute(robot);
+                        } catch (RobotInterruptedException e) {
+                        }
+                        sink += robot.calls;
+                });
+            }
+            for (int size : WORLD_SIZES) {
+                for (int barrels : BARREL_COUNTS) {
+                    if (barrels > size * size / 2) {
+                        continue;
+                    }
+                    Map<String, String> params = new LinkedHashMap<>();
+                    params.put("worldSize", "" + size);
+                    params.put("barrels", "" + barrels);
+                    World world = worldWithBarrels(size, barrels);
+                    Robot robot = world.getRobot(1);
+                    run("updatePending", params, () -> {
+                            robot.updatePending();
+                            sink += robot.getFuelLevel();
+                    });
+                    // the barrel search is lazy, so its cost only shows up once a sensor asks
+                    run("updateWorldAndClosestBarrel", params, () -> {
+                            world.updateWorld();
+                            sink += robot.getClosestBarrelLR();
+                    });
+                    // a program reading the same sensors again within a turn
+                    run("repeatedSensors", params, () -> {
+                            sink += robot.getClosestBarrelLR() + robot.getClosestBarrelFB() + robot.getBarrelLR(1)
+                                + robot.getOpponentLR() + robot.getOpponentFB() + robot.numBarrels();
+                    });
+                    run("updateWorld", params, () -> {
+                            world.updateWorld();
+                            sink += world.getTurn();
+                    });
+                    // the robots move every turn, so the robot index changes every snapshot
+                    run("updateWorldMovingRobots", params, () -> {
+                            moveRobots(world);
+                            world.updateWorld();
+                            sink += robot.getOpponentLR();
+                    });
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * A world with the robots in place (but not running) and the given number of barrels,
+     * which stays fixed however many times the world is updated.
+     * The seed is fixed, so every run times the same layout.
+     */
+    private static World worldWithBarrels(int size, int barrels) {
+        World world = new World(size, 2, 42);
+        world.setFuelSupply(0, barrels);
+        world.updateWorld();
+        world.setFuelSupply(0, 0);
+        return world;
+    }
+
+    /**
+     * Steps each robot one cell along its row and back again on alternate turns.
+     * The robots are put in their new cells directly (as a replay does), so the robot threads aren't timed too.
+     */
+    private static void moveRobots(World world) {
+        for (int id = 1; id <= world.getNumRobots(); id++) {
+            Robot robot = world.getRobot(id);
+            int x = (robot.getX() % 2 == 0) ? robot.getX() + 1 : robot.getX() - 1;
+            robot.replayTo(x, robot.getY(), robot.getDirection(), 100, false);
+        }
+    }
+
+    private void run(String name, Map<String, String> params, Runnable op) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(op);
+        }
+        double[] raw = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            raw[i] = iteration(op);
+        }
+        results.add(new Result(name, params, raw));
+    }
+
+    /**
+     * Runs op repeatedly for about iterationNanos, and returns the average ns per call
+     */
+    private double iteration(Runnable op) {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            // check the clock every few calls, so fast ops aren't dominated by nanoTime()
+            for (int i = 0; i < 16; i++) {
+                op.run();
+            }
+            ops += 16;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / ops;
+    }
+
+    private void writeJson(PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            out.print(results.get(i).toJson());
+            out.println((i < results.size() - 1) ? "," : "");
+        }
+        out.println("]");
+    }
+
+    /**
+     * The timings for one benchmark with one set of parameters
+     */
+    private static class Result {
+        final String name;
+        final Map<String, String> params;
+        final double[] raw;
+
+        Result(String name, Map<String, String> params, double[] raw) {
+            this.name = name;
+            this.params = params;
+            this.raw = raw;
+        }
+
+        double mean() {
+            double total = 0;
+            for (double r : raw) {
+                total += r;
+            }
+            return total / raw.length;
+        }
+
+        /**
+         * Half-width of a ~99.9% confidence interval for the mean (normal approximation)
+         */
+        double error() {
+            if (raw.length < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double r : raw) {
+                squares += (r - mean) * (r - mean);
+            }
+            return 3.29 * Math.sqrt(squares / (raw.length - 1)) / Math.sqrt(raw.length);
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("  {\n");
+            json.append("    \"benchmark\": \"").append(name).append("\",\n");
+            json.append("    \"params\": {");
+            String sep = "";
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                json.append(sep).append('"').append(param.getKey()).append("\": \"").append(param.getValue()).append('"');
+                sep = ", ";
+            }
+            json.append("},\n");
+            json.append("    \"mode\": \"avgt\",\n");
+            json.append("    \"unit\": \"ns/op\",\n");
+            json.append("    \"score\": ").append(number(mean())).append(",\n");
+            json.append("    \"scoreError\": ").append(number(error())).append(",\n");
+            json.append("    \"rawData\": [");
+            for (int i = 0; i < raw.length; i++) {
+                json.append((i == 0) ? "" : ", ").append(number(raw[i]));
+            }
+            json.append("]\n  }");
+            return json.toString();
+        }
+
+        private static String number(double value) {
+            return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+        }
+    }
+}
+
+/**
+ * A robot that does nothing, for timing the interpreters on their own.
+ * Sensors return values that change from call to call, so programs take
+ * different branches, and it stops the program (like a cancelled robot)
+ * after a fixed number of actions and sensor calls.
+ */
+class StubRobot extends Robot {
+    int calls = 0;
+    private final int limit;
+
+    StubRobot(int limit) {
+        super(null, 0, 0, "red", true);
+        this.limit = limit;
+    }
+
+    private int call() {
+        if (++calls > limit) {
+            throw new RobotInterruptedException();
+        }
+        return calls;
+    }
+
+    public void move() { call(); }
+    public void turnLeft() { call(); }
+    public void turnRight() { call(); }
+    public void turnAround() { call(); }
+    public void setShield(boolean shield) { call(); }
+    public void takeFuel() { call(); }
+    public void idleWait() { call(); }
+
+    public int getFuel() { return 100 - call() % 100; }
+    public int getDistanceToWall() { return call() % 12; }
+    public int getOpponentLR() { return call() % 7 - 3; }
+    public int getOpponentFB() { return call() % 5 - 2; }
+    public int numBarrels() { return call() % 4; }
+    public int getClosestBarrelLR() { return call() % 9 - 4; }
+    public int getClosestBarrelFB() { return call() % 11 - 5; }
+    public int getBarrelLR(int n) { return call() % 9 - 4 + n; }
+    public int getBarrelFB(int n) { return call() % 11 - 5 + n; }
+    public boolean isShieldOn() { return call() % 2 == 0; }
+}
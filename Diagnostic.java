@@ -0,0 +1,43 @@
+import java.util.*;
+
+/**
+ * An error found in a program, and where it is in the text (line and column, both from 1)
+ */
+class Diagnostic {
+    final int line, column;
+    final String message;
+
+    Diagnostic(int line, int column, String message) {
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    /**
+     * Works out where each of the parser's failures is in the text, in one pass over it.
+     * Only the first line of each message is kept (not the tokens it was near).
+     */
+    static List<Diagnostic> locate(String text, List<ParserFailureException> failures) {
+        List<ParserFailureException> sorted = new ArrayList<>(failures);
+        sorted.sort(Comparator.comparingInt(e -> (e.offset < 0) ? text.length() : e.offset));
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        int line = 1, lineStart = 0, pos = 0;
+        for (ParserFailureException e : sorted) {
+            int offset = (e.offset < 0) ? text.length() : e.offset;
+            for (; pos < offset; pos++) {
+                if (text.charAt(pos) == '\n') {
+                    line++;
+                    lineStart = pos + 1;
+                }
+            }
+            String message = e.getMessage();
+            int end = message.indexOf('\n');
+            diagnostics.add(new Diagnostic(line, offset - lineStart + 1, (end < 0) ? message : message.substring(0, end)));
+        }
+        return diagnostics;
+    }
+
+    public String toString() {
+        return line + ":" + column + ": " + message;
+    }
+}
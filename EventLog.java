@@ -0,0 +1,192 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log of what the robots do (actions at INFO) and see (sensor readings at DEBUG).
+ *
+ * Robots record events as plain ints into a fixed ring buffer, without building strings
+ * or taking locks; a background thread turns them into messages and prints them.
+ * When an event's level is off, log() returns straight away, so it costs nothing.
+ * If the printer falls behind and the buffer fills up, events are dropped (and counted)
+ * rather than holding up the robots.
+ *
+ * The level starts from the robot.log system property (off, info or debug), default off.
+ *
+ * The messages are the ones the robots used to print, except that:
+ * an oppLR or oppFB with no opponent prints INFINITY (it used to be misspelt INFINTY);
+ * a siphon prints "Taking fuel (n)" with the amount taken, after the robot's colour like every other
+ * message (it used to be just "Taking fuel"); and the wall distance sensor is logged too, as "wallDist=n".
+ */
+public final class EventLog {
+
+    public enum Level { OFF, INFO, DEBUG }
+
+    /**
+     * Everything a robot can log. Each kind of event knows its level and how to print itself.
+     */
+    enum Event {
+        MOVE(Level.INFO), TURN_LEFT(Level.INFO), TURN_RIGHT(Level.INFO), TURN_AROUND(Level.INFO),
+        SHIELD(Level.INFO), TAKE_FUEL(Level.INFO), WAIT(Level.INFO), SIPHON(Level.INFO),
+        FUEL(Level.DEBUG), WALL_DIST(Level.DEBUG), OPP_LR(Level.DEBUG), OPP_FB(Level.DEBUG),
+        NUM_BARRELS(Level.DEBUG), BARREL_LR(Level.DEBUG), BARREL_FB(Level.DEBUG), SHIELD_STATE(Level.DEBUG);
+
+        final Level level;
+        Event(Level level) {
+            this.level = level;
+        }
+    }
+
+    private static final int CAPACITY = 1 << 14;  // must be a power of 2
+    private static final Event[] EVENTS = Event.values();
+
+    private static volatile Level level = Level.valueOf(
+        System.getProperty("robot.log", "off").toUpperCase(Locale.ROOT));
+    private static volatile PrintStream out = System.out;
+
+    // The ring buffer. A producer claims a sequence number from tail, fills in that slot,
+    // then publishes it by storing the sequence number; the printer reads slots in order.
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final Robot[] robots = new Robot[CAPACITY];
+    private static final int[] events = new int[CAPACITY], args = new int[CAPACITY], values = new int[CAPACITY];
+    private static volatile long head = 0;  // everything before this has been formatted
+    private static volatile long printed = 0;  // everything before this has been printed
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Thread printer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    private EventLog() {}
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Where the messages are printed (System.out unless changed)
+     */
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    /**
+     * Records that the robot did or saw something. What arg and value mean depends on the event
+     * (eg. for BARREL_LR, arg is which barrel and value is the reading).
+     */
+    static void log(Event event, Robot robot, int arg, int value) {
+        if (event.level.compareTo(level) > 0) {
+            return;
+        }
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        int slot = (int) seq & (CAPACITY - 1);
+        robots[slot] = robot;
+        events[slot] = event.ordinal();
+        args[slot] = arg;
+        values[slot] = value;
+        published.set(slot, seq);  // volatile write: the fields above are visible once this is
+        if (printer == null) {
+            startPrinter();
+        }
+    }
+
+    /**
+     * Waits (for up to a second) until everything logged so far has been printed,
+     * eg. before exiting
+     */
+    public static void flush() {
+        long end = tail.get();
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        while (printer != null && printed < end && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    private static synchronized void startPrinter() {
+        if (printer != null) {
+            return;
+        }
+        printer = new Thread(EventLog::printLoop, "event-log");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    private static void printLoop() {
+        StringBuilder text = new StringBuilder();
+        long reported = 0;
+        while (true) {
+            long seq = head;
+            int slot = (int) seq & (CAPACITY - 1);
+            if (published.get(slot) != seq) {
+                // nothing new: print what has built up, then wait a little
+                if (dropped.get() != reported) {
+                    reported = dropped.get();
+                    text.append("(").append(reported).append(" log events dropped so far)\n");
+                }
+                if (text.length() > 0) {
+                    out.print(text);
+                    out.flush();
+                    text.setLength(0);
+                }
+                printed = seq;
+                LockSupport.parkNanos(1_000_000L);
+                continue;
+            }
+            format(EVENTS[events[slot]], robots[slot], args[slot], values[slot], text);
+            text.append('\n');
+            robots[slot] = null;
+            head = seq + 1;
+            if (text.length() > 8192) {
+                out.print(text);
+                text.setLength(0);
+            }
+        }
+    }
+
+    private static void format(Event event, Robot robot, int arg, int value, StringBuilder text) {
+        text.append(robot.getColour()).append(" robot: ");
+        switch (event) {
+        case MOVE -> text.append("move");
+        case TURN_LEFT -> text.append("turnL");
+        case TURN_RIGHT -> text.append("turnR");
+        case TURN_AROUND -> text.append("turnAround");
+        case SHIELD -> text.append((value != 0) ? "shield on" : "shield off");
+        case TAKE_FUEL -> text.append("takeFuel");
+        case WAIT -> text.append("wait");
+        case SIPHON -> text.append("Taking fuel (").append(value).append(")");
+        case FUEL -> text.append("fuel=").append(value);
+        case WALL_DIST -> text.append("wallDist=").append(value);
+        case OPP_LR -> appendReading(text.append("oppLR="), value);
+        case OPP_FB -> appendReading(text.append("oppFB="), value);
+        case NUM_BARRELS -> text.append("numBarrels = ").append(value);
+        case BARREL_LR -> appendReading(text.append((arg == 0) ? "" : arg + "th").append("closestBarrelLR = "), value);
+        case BARREL_FB -> appendReading(text.append((arg == 0) ? "" : arg + "th").append("closestBarrelFB = "), value);
+        case SHIELD_STATE -> text.append((value != 0) ? "shield is on" : "shield is off");
+        }
+    }
+
+    private static void appendReading(StringBuilder text, int value) {
+        if (value == Robot.INFINITY) {
+            text.append("INFINITY");
+        } else {
+            text.append(value);
+        }
+    }
+}
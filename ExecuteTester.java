@@ -10,9 +10,20 @@ public class ExecuteTester{
      * For testing the execute() methods from your parser without requiring the world or the game:
      * Calling main with no arguments will ask the user to select a stage
      * and will then test programs for that stage 
+     * Calling main with an execution mode (eg "bytecode") runs the programs in that mode,
+     * and adding "optimize" after it runs them through the ProgramOptimizer first
      */
 
+    private static ExecutionMode mode = ExecutionMode.TREE;
+    private static boolean optimize = false;
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            mode = ExecutionMode.valueOf(args[0].toUpperCase());
+        }
+        if (args.length > 1 && args[1].equals("optimize")) {
+            optimize = true;
+        }
         Parser parser = new Parser();
         System.out.println("Testing execute methods");
         System.out.println("=======================");
@@ -55,7 +66,9 @@ public class ExecuteTester{
      */
     static void testProgram(String program, ProgramNode ast, String expected){
         TesterRobot robot = new TesterRobot();
-        try {ast.execute(robot);}
+        robot.setProgram(optimize ? ProgramOptimizer.optimize(ast) : ast);
+        robot.setExecutionMode(mode);
+        try {robot.run();}
         catch(RobotInterruptedException e){}
         compare(((TesterRobot)robot).getOutput(), expected, program);
     }
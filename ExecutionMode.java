@@ -0,0 +1,9 @@
+/**
+ * The ways a robot can run its program.
+ * TREE walks the parse tree directly,
+ * BYTECODE compiles it to a flat instruction array first (see ProgramCompiler),
+ * CLOSURE compiles each node to a lambda first (see ClosureCompiler).
+ */
+public enum ExecutionMode {
+    TREE, BYTECODE, CLOSURE
+}
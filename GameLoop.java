@@ -0,0 +1,131 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Advances a game on its own thread, a set number of turns per second or as fast as it can,
+ * independently of how often it is drawn. Whatever draws it uses getTimeRatio() to animate
+ * each turn, however long the turn lasts.
+ *
+ * A live world is run in lockstep (see World.step), so every robot gets to choose its action
+ * each turn whatever the speed, and a match plays out the same at 100 times normal speed as at
+ * normal speed (the way the Simulator plays it).
+ */
+public class GameLoop {
+
+    public static final double NORMAL_SPEED = 1000.0 / 660;  // turns per second
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private final BooleanSupplier turn;  // plays one turn, returning whether there are more to come
+    private volatile double turnsPerSecond = NORMAL_SPEED;
+    private volatile long turnStart = System.nanoTime();
+    private volatile boolean running = false;
+    private volatile Thread thread;
+
+    /**
+     * A loop that plays a turn of the game by calling turn, until it returns false or the loop is stopped
+     */
+    public GameLoop(BooleanSupplier turn) {
+        this.turn = turn;
+    }
+
+    /**
+     * A loop that runs the world, which is put in lockstep mode, until at most one robot
+     * has fuel left (or none, for a lone robot). Robots that take longer than stallMillis
+     * to act miss the turn. Must be made before the world is started.
+     */
+    public static GameLoop forWorld(World world, long stallMillis) {
+        world.setLockstep(true);
+        int lastRobot = Math.min(1, world.getNumRobots() - 1);
+        return new GameLoop(() -> {
+                world.step(stallMillis);
+                return world.getRobotsRunning() > lastRobot;
+        });
+    }
+
+    /**
+     * How fast the game goes. Can be changed at any time, and takes effect from the next turn.
+     * AS_FAST_AS_POSSIBLE plays each turn as soon as the last is done.
+     */
+    public void setTurnsPerSecond(double turnsPerSecond) {
+        if (!(turnsPerSecond > 0)) {
+            throw new IllegalArgumentException("Turns per second must be more than 0: " + turnsPerSecond);
+        }
+        this.turnsPerSecond = turnsPerSecond;
+        Thread waiting = thread;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);  // to work out its wait again
+        }
+    }
+
+    public double getTurnsPerSecond() {
+        return turnsPerSecond;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Game loop already started");
+        }
+        running = true;
+        turnStart = System.nanoTime();
+        thread = new Thread(this::run, "game-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop after the turn it is playing, if any. Does not wait for it.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * How far through the current turn we are, from 0 to 1.
+     * At full speed turns are over as soon as they start, so this is always 1.
+     */
+    public double getTimeRatio() {
+        return getTimeRatio(turnStart);
+    }
+
+    /**
+     * How far through a turn that started at the given System.nanoTime() we are, from 0 to 1
+     * (eg. for a turn's WorldSnapshot, which may be newer than the loop's own idea of when the turn started)
+     */
+    public double getTimeRatio(long start) {
+        long nanos = turnNanos();
+        if (nanos == 0) {
+            return 1;
+        }
+        return Math.max(0, Math.min(1, (double) (System.nanoTime() - start) / nanos));
+    }
+
+    private long turnNanos() {
+        double perSecond = turnsPerSecond;
+        return (perSecond == AS_FAST_AS_POSSIBLE) ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    }
+
+    private void run() {
+        while (running) {
+            // wait out the turn before applying it, so it gets its full time on screen
+            for (long wait; (wait = turnStart + turnNanos() - System.nanoTime()) > 0 && running; ) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!running || Thread.interrupted()) {
+                break;
+            }
+            if (turn.getAsBoolean()) {
+                turnStart = System.nanoTime();
+            } else {
+                running = false;  // leaving the last turn finished
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.*;
+
+/**
+ * Occupancy index over the cells of a square grid.
+ * Each row is a bitset, so a cell can be tested, added or removed in constant time,
+ * and the occupied cells are also kept in a dense array so they can be walked
+ * without scanning empty rows.
+ * Views share the rows with the index: a row is only copied the first time it changes
+ * after a view was made, so a view costs the rows that changed, not the whole grid.
+ */
+class GridIndex {
+    private final int size;
+    private final long[][] rows;
+    private final int[] copiedAt;  // the number of views made when each row was last copied (rows copied before the last view are shared with it)
+    private int views = 0;
+    private int[] cells = new int[16];  // y * size + x of every occupied cell
+    private boolean cellsShared = false;
+    private final int[] positions;  // cell -> index into cells, or -1 if the cell is empty
+    private int count = 0;
+
+    GridIndex(int size) {
+        this.size = size;
+        this.rows = new long[size][(size + 63) / 64];
+        this.copiedAt = new int[size];
+        this.positions = new int[size * size];
+        Arrays.fill(positions, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < size && y < size
+            && (rows[y][x >>> 6] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns false if the cell was already occupied
+     */
+    boolean add(int x, int y) {
+        if (contains(x, y)) {
+            return false;
+        }
+        row(y)[x >>> 6] |= 1L << x;
+        // a view only reads the cells before its count, so adding after them doesn't need a copy
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, count * 2);
+            cellsShared = false;
+        }
+        positions[y * size + x] = count;
+        cells[count++] = y * size + x;
+        return true;
+    }
+
+    /**
+     * Returns false if the cell was not occupied
+     */
+    boolean remove(int x, int y) {
+        if (!contains(x, y)) {
+            return false;
+        }
+        row(y)[x >>> 6] &= ~(1L << x);
+        if (cellsShared) {
+            cells = cells.clone();
+            cellsShared = false;
+        }
+        // move the last cell into the gap
+        int index = positions[y * size + x];
+        positions[y * size + x] = -1;
+        int last = cells[--count];
+        if (index != count) {
+            cells[index] = last;
+            positions[last] = index;
+        }
+        return true;
+    }
+
+    void clear() {
+        for (int y = 0; y < size; y++) {
+            if (copiedAt[y] != views) {
+                rows[y] = new long[rows[y].length];
+                copiedAt[y] = views;
+            } else {
+                Arrays.fill(rows[y], 0);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            positions[cells[i]] = -1;
+        }
+        if (cellsShared) {
+            cells = new int[16];
+            cellsShared = false;
+        }
+        count = 0;
+    }
+
+    /**
+     * The ith occupied cell (in no particular order), as y * size + x
+     */
+    int cell(int i) {
+        return cells[i];
+    }
+
+    /**
+     * The index as it is now, which doesn't change when the index does
+     */
+    GridView view() {
+        views++;
+        cellsShared = true;
+        return new GridView(size, rows.clone(), cells, count);
+    }
+
+    /**
+     * Row y, copied first if a view has it
+     */
+    private long[] row(int y) {
+        if (copiedAt[y] != views) {
+            rows[y] = rows[y].clone();
+            copiedAt[y] = views;
+        }
+        return rows[y];
+    }
+}
+
+/**
+ * A GridIndex as it was when the view was made. Never changes, so it can be read
+ * (eg. searched by a robot's sensors) on one thread while the index changes on another.
+ */
+class GridView {
+    private final int size;
+    private final long[][] rows;
+    private final int[] cells;  // in the same order as in the index
+    private final int count;
+
+    /**
+     * The arrays are kept, not copied, so they must not change afterwards
+     */
+    GridView(int size, long[][] rows, int[] cells, int count) {
+        this.size = size;
+        this.rows = rows;
+        this.cells = cells;
+        this.count = count;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < size && y < size
+            && (rows[y][x >>> 6] & (1L << x)) != 0;
+    }
+
+    /**
+     * The ith occupied cell, as y * size + x
+     */
+    int cell(int i) {
+        return cells[i];
+    }
+}
+
+/**
+ * Finds the occupied cells of a GridView in order of (Manhattan) distance from a point.
+ * Cells are found lazily: asking for the nth closest only searches as far out as it
+ * needs to, and later asks carry on from where the search stopped.
+ * Searches outward ring by ring while rings are small, and once the rings get big
+ * compared with the number of cells still to find, sorts the rest instead.
+ */
+class GridSearch {
+    private GridView index;
+    private int originX, originY;
+    private int radius;      // every ring up to this distance has been searched
+    private int found;
+    private int[] foundX = new int[8], foundY = new int[8];
+
+    /**
+     * A search with nothing to search until it is reset
+     */
+    GridSearch() {
+        reset(new GridView(0, new long[0][], new int[0], 0), 0, 0);
+    }
+
+    /**
+     * Starts a new search of the given cells, from (x, y)
+     */
+    void reset(GridView cells, int x, int y) {
+        index = cells;
+        originX = x;
+        originY = y;
+        radius = -1;
+        found = 0;
+    }
+
+    /**
+     * The number of occupied cells
+     */
+    int total() {
+        return index.count();
+    }
+
+    /**
+     * Makes sure the nth closest cell (counting from 0) has been found.
+     * Returns false if there are not that many occupied cells.
+     */
+    boolean find(int n) {
+        if (n < 0 || n >= index.count()) {
+            return false;
+        }
+        while (found <= n) {
+            int remaining = index.count() - found;
+            if (4 * (radius + 1) > 16 * remaining) {
+                sortRemaining();
+            } else {
+                radius++;
+                searchRing(radius);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * x of the nth closest cell; only valid after find(n) returned true
+     */
+    int x(int n) {
+        return foundX[n];
+    }
+
+    int y(int n) {
+        return foundY[n];
+    }
+
+    private void searchRing(int r) {
+        int size = index.size();
+        int minY = Math.max(0, originY - r);
+        int maxY = Math.min(size - 1, originY + r);
+        for (int y = minY; y <= maxY; y++) {
+            int dx = r - Math.abs(y - originY);
+            if (index.contains(originX - dx, y)) {
+                addFound(originX - dx, y);
+            }
+            if (dx != 0 && index.contains(originX + dx, y)) {
+                addFound(originX + dx, y);
+            }
+        }
+    }
+
+    /**
+     * Finds every cell beyond the current radius at once, closest first
+     */
+    private void sortRemaining() {
+        int size = index.size();
+        int total = index.count();
+        long[] keys = new long[total - found];
+        int k = 0;
+        for (int i = 0; i < total; i++) {
+            int cell = index.cell(i);
+            int x = cell % size, y = cell / size;
+            int dist = Math.abs(x - originX) + Math.abs(y - originY);
+            if (dist > radius) {
+                keys[k++] = ((long) dist << 32) | cell;
+            }
+        }
+        Arrays.sort(keys, 0, k);
+        for (int i = 0; i < k; i++) {
+            int cell = (int) keys[i];
+            addFound(cell % size, cell / size);
+        }
+        radius = Integer.MAX_VALUE - 1;
+    }
+
+    private void addFound(int x, int y) {
+        if (found == foundX.length) {
+            foundX = Arrays.copyOf(foundX, found * 2);
+            foundY = Arrays.copyOf(foundY, found * 2);
+        }
+        foundX[found] = x;
+        foundY[found] = y;
+        found++;
+    }
+}
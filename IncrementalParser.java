@@ -0,0 +1,191 @@
+import java.util.*;
+
+/**
+ * A parser that remembers the last program it parsed, so that after an edit it only
+ * re-reads what changed.
+ *
+ * The old and new texts are compared to find the unchanged text at the start and end;
+ * everything between is the edited region. Only the edited region is split into tokens
+ * again; the tokens before and after it are taken from the last parse.
+ * A block ({ ... }) that lies wholly in the unchanged start or end has exactly the same
+ * text as before, so its BlockNode is reused as it is, and the parser skips straight
+ * over its tokens. Blocks around the edit are parsed again, but still reuse any
+ * untouched blocks inside them.
+ *
+ * A reused block must be at the same nesting depth as before (the indent is part of the
+ * node), and its variables must keep their slots, so each parse starts from the previous
+ * variable slots. Variables that were removed keep their slot until the parser is made again.
+ * A program that fails to parse is forgotten, and the next edit is compared against the
+ * last program that parsed.
+ */
+class IncrementalParser extends Parser {
+
+    /**
+     * Where a block was in the text: from its '{' up to just after its '}'
+     */
+    private static class BlockRange {
+        final int start, end;
+        final BlockNode block;
+
+        BlockRange(int start, int end, BlockNode block) {
+            this.start = start;
+            this.end = end;
+            this.block = block;
+        }
+
+        BlockRange shift(int shift) {
+            return (shift == 0) ? this : new BlockRange(start + shift, end + shift, block);
+        }
+    }
+
+    private String oldText = "";
+    private Token[] oldTokens = new Token[0];
+    private List<BlockRange> oldBlocks = new ArrayList<>();  // in order of where they start
+    private Map<String, Integer> oldSlots = new HashMap<>();
+
+    // the parse in progress
+    private List<BlockRange> newBlocks;
+    private int prefix, oldSuffixStart, newSuffixStart;
+    private int reused;
+
+    /**
+     * Parses the text of a program, reusing whatever the last program parsed
+     * has in common with it.
+     * Returns the parse tree.
+     */
+    @Override
+    ProgramNode parse(String text) {
+        int max = Math.min(oldText.length(), text.length());
+        prefix = 0;
+        while (prefix < max && oldText.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+               && oldText.charAt(oldText.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        oldSuffixStart = oldText.length() - suffix;
+        newSuffixStart = text.length() - suffix;
+
+        Token[] tokens = tokenize(text);
+        indentLevel = 0;
+        variableSlots = new HashMap<>(oldSlots);
+        newBlocks = new ArrayList<>();
+        reused = 0;
+        ProgramNode program = parseProg(new Tokens(tokens));
+
+        // only remember programs that parsed
+        oldText = text;
+        oldTokens = tokens;
+        oldBlocks = newBlocks;
+        oldSlots = variableSlots;
+        return program;
+    }
+
+    /**
+     * The number of blocks the last parse took from the one before (including blocks inside them)
+     */
+    int reusedBlocks() {
+        return reused;
+    }
+
+    /**
+     * The old tokens that end before the edit, the edited region split into tokens,
+     * and the old tokens that start after it.
+     * A token next to the edit is split again, since the edit could join it to its neighbour.
+     */
+    private Token[] tokenize(String text) {
+        int before = firstToken(oldTokens, prefix);
+        while (before > 0 && end(oldTokens[before - 1]) >= prefix) {
+            before--;
+        }
+        int after = firstToken(oldTokens, oldSuffixStart + 1);
+        int from = (before == 0) ? 0 : end(oldTokens[before - 1]);
+        int shift = newSuffixStart - oldSuffixStart;
+        int to = (after == oldTokens.length) ? text.length() : oldTokens[after].offset + shift;
+
+        List<Token> tokens = new ArrayList<>(oldTokens.length + 16);
+        tokens.addAll(Arrays.asList(oldTokens).subList(0, before));
+        Lexer.tokenize(text, from, to, tokens);
+        for (int i = after; i < oldTokens.length; i++) {
+            Token token = oldTokens[i];
+            tokens.add((shift == 0) ? token : new Token(token.kind, token.text, token.offset + shift));
+        }
+        return tokens.toArray(new Token[0]);
+    }
+
+    private static int end(Token token) {
+        return token.offset + token.text.length();
+    }
+
+    /**
+     * The index of the first token starting at or after the offset
+     */
+    private static int firstToken(Token[] tokens, int offset) {
+        int low = 0, high = tokens.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens[mid].offset < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    BlockNode parseBlock(Tokens s) {
+        Token open = s.peek();
+        if (open != null && open.text.equals(OPENBRACE)) {
+            int index = unchangedBlock(open.offset);
+            if (index >= 0 && oldBlocks.get(index).block.indent == indentLevel + 1) {
+                // take the block and every block inside it, which come straight after it
+                BlockRange old = oldBlocks.get(index);
+                int shift = open.offset - old.start;
+                for (int i = index; i < oldBlocks.size() && oldBlocks.get(i).start < old.end; i++) {
+                    newBlocks.add(oldBlocks.get(i).shift(shift));
+                    reused++;
+                }
+                s.skipTo(old.end + shift);
+                return old.block;
+            }
+        }
+        int index = newBlocks.size();
+        newBlocks.add(null);  // keeps the blocks in order of where they start
+        BlockNode block = super.parseBlock(s);
+        int end = s.peek(-1).offset + 1;  // just after the '}' that was consumed last
+        newBlocks.set(index, new BlockRange(open.offset, end, block));
+        return block;
+    }
+
+    /**
+     * The index of the block from the last parse that started at this offset in the
+     * new text, if the edit left all of it alone, or -1
+     */
+    private int unchangedBlock(int offset) {
+        int oldOffset;
+        if (offset < prefix) {
+            oldOffset = offset;
+        } else if (offset >= newSuffixStart) {
+            oldOffset = offset - newSuffixStart + oldSuffixStart;
+        } else {
+            return -1;
+        }
+        int low = 0, high = oldBlocks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (oldBlocks.get(mid).start < oldOffset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == oldBlocks.size() || oldBlocks.get(low).start != oldOffset) {
+            return -1;
+        }
+        BlockRange old = oldBlocks.get(low);
+        return (offset >= prefix || old.end <= prefix) ? low : -1;
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests the incremental parser against the ordinary one:
+ * Each test case is a program, an edit of it, and how many blocks the incremental parser
+ * should take from its parse of the program when it parses the edit.
+ * It parses the program and then the edit with one IncrementalParser, and the edit with a new Parser.
+ * If both give the same tree (or both fail) and the right number of blocks was reused, it prints "OK",
+ * otherwise "BAD".
+ * It then makes random edits to the programs in the programs directory, one after another,
+ * checking each the same way (except for the number of blocks reused, which can't be more
+ * than the edited program has).
+ */
+public class IncrementalParserTester {
+
+    private static final int RANDOM_EDITS = 500;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("Testing the incremental parser");
+        System.out.println("==============================");
+        for (String[] test : edits) {
+            System.out.println("------\nEditing: " + test[0].replace("\n", " ") + "\n     to: " + test[1].replace("\n", " ")
+                               + " [" + test[3] + "]");
+            IncrementalParser parser = new IncrementalParser();
+            parse(parser, test[0]);
+            String incremental = parse(parser, test[1]);
+            String fresh = parse(new Parser(), test[1]);
+            int reused = parser.reusedBlocks();
+            if (!incremental.equals(fresh)) {
+                System.out.println("BAD, gave " + incremental.replace("\n", " ") + "\n  but the parser gave " + fresh.replace("\n", " "));
+            } else if (!fresh.equals("FAIL") && reused != Integer.parseInt(test[2])) {
+                System.out.println("BAD, reused " + reused + " blocks, expected " + test[2]);
+            } else {
+                System.out.println("OK, " + (fresh.equals("FAIL") ? "both failed" : "reused " + reused + " blocks"));
+            }
+        }
+
+        System.out.println("------\nEditing a program that stops parsing, then parses again:");
+        IncrementalParser parser = new IncrementalParser();
+        parse(parser, "loop { move; } wait;");
+        parse(parser, "loop { move; } wait");
+        String incremental = parse(parser, "loop { move; } wait; turnL;");
+        if (incremental.equals(parse(new Parser(), "loop { move; } wait; turnL;")) && parser.reusedBlocks() == 1) {
+            System.out.println("OK, compared with the last program that parsed");
+        } else {
+            System.out.println("BAD, gave " + incremental.replace("\n", " ") + " reusing " + parser.reusedBlocks() + " blocks");
+        }
+
+        System.out.println("------\nRandom edits:");
+        Random random = new Random(17);
+        File[] files = new File(RoboGame.CODE_DIRECTORY).listFiles((dir, name) -> name.endsWith("_full.prog") || name.endsWith("_simple.prog"));
+        Arrays.sort(files);
+        for (File file : files) {
+            String text = Files.readString(file.toPath());
+            parser = new IncrementalParser();
+            parse(parser, text);
+            int bad = 0;
+            for (int i = 0; i < RANDOM_EDITS; i++) {
+                String edited = randomEdit(text, random);
+                if (edited.isBlank()) {
+                    continue;
+                }
+                incremental = parse(parser, edited);
+                String fresh = parse(new Parser(), edited);
+                int blocks = (int) fresh.chars().filter(c -> c == '{').count();
+                if (!incremental.equals(fresh) || (!fresh.equals("FAIL") && parser.reusedBlocks() > blocks)) {
+                    bad++;
+                    if (bad <= 3) {
+                        System.out.println("BAD, editing " + file.getName() + " to:\n" + edited + "\n  gave " + incremental.replace("\n", " ")
+                                           + "\n  but the parser gave " + fresh.replace("\n", " "));
+                    }
+                }
+                if (!fresh.equals("FAIL")) {
+                    text = edited;  // carry on from the edit, as someone typing would
+                }
+            }
+            System.out.println((bad == 0 ? "OK, " : "BAD, " + bad + " of ") + RANDOM_EDITS + " edits of " + file.getName());
+        }
+        System.out.println("Done");
+    }
+
+    /**
+     * The printed tree, or "FAIL" if the program doesn't parse
+     */
+    private static String parse(Parser parser, String text) {
+        try {
+            return String.valueOf(parser.parse(text));
+        } catch (ParserFailureException e) {
+            return "FAIL";
+        }
+    }
+
+    private static final String[] INSERTS = { "move;", " ", "\n", "}", "{", "loop { wait; }", "$x = add($x, 1);",
+                                              "if (eq($y, 2)) { move; }", "turnL;", "(", "1" };
+
+    /**
+     * The text with a few characters deleted, or something inserted, at a random place
+     */
+    private static String randomEdit(String text, Random random) {
+        int at = random.nextInt(text.length() + 1);
+        if (random.nextBoolean()) {
+            return text.substring(0, at) + INSERTS[random.nextInt(INSERTS.length)] + text.substring(at);
+        }
+        int end = Math.min(text.length(), at + 1 + random.nextInt(5));
+        return text.substring(0, at) + text.substring(end);
+    }
+
+    // program, edited program, blocks the edit should reuse, what it tests
+    private static final String[][] edits = new String[][] {
+        {"loop { move; } while (gt(fuelLeft, 0)) { wait; }", "loop { move; } while (gt(fuelLeft, 0)) { wait; } turnL;",
+         "2", "edit after every block"},
+        {"loop { move; } while (gt(fuelLeft, 0)) { wait; }", "loop { move; turnL; } while (gt(fuelLeft, 0)) { wait; }",
+         "1", "edit inside the first block"},
+        {"loop { move; }", "wait; loop { move; }", "1", "block moved along by an edit before it"},
+        {"loop { if (eq(1, 1)) { move; } wait; }", "loop { if (eq(1, 1)) { move; } turnR; }",
+         "1", "inner block reused in a block parsed again"},
+        {"loop { if (eq(1, 1)) { move; } else { wait; } }", "loop { if (eq(1, 2)) { move; } else { wait; } }",
+         "2", "edit in a condition between blocks"},
+        {"if (eq(1, 1)) { move; }", "loop { if (eq(1, 1)) { move; } }", "0", "block nested deeper is not reused"},
+        {"$x = 1; loop { $y = add($x, 1); move($y); }", "loop { $y = add($x, 1); move($y); }",
+         "1", "variables keep their slots"},
+        {"move(3); loop { wait; }", "move(34); loop { wait; }", "1", "edit joined to the token next to it"},
+        {"turnL; loop { wait; }", "turn L; loop { wait; }", "0", "edit splitting a token"},
+        {"loop { move; }", "loop { move; ", "0", "edit that stops the program parsing"},
+    };
+}
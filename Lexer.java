@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Single-pass lexer for robot programs.
+ * Splits the program text into tokens the same way the old Scanner delimiter did:
+ * whitespace separates tokens, and each of { } ( ) , ; is always a token of its own.
+ * Each token is classified once here, so the parser only ever compares strings.
+ */
+class Lexer {
+
+    static final Set<String> KEYWORDS = Set.of(
+            "loop", "if", "elif", "else", "while",
+            "not", "and", "or", "lt", "gt", "eq",
+            "move", "turnL", "turnR", "turnAround", "shieldOn", "shieldOff", "takeFuel", "wait",
+            "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB", "wallDist",
+            "add", "sub", "mul", "div");
+
+    /**
+     * Splits the text into an array of tokens.
+     */
+    static Token[] tokenize(CharSequence text) {
+        List<Token> tokens = new ArrayList<>();
+        tokenize(text, 0, text.length(), tokens);
+        return tokens.toArray(new Token[0]);
+    }
+
+    /**
+     * Adds the tokens between from and to in the text to the list.
+     * from must not be in the middle of a word; a word running past to is cut off there.
+     */
+    static void tokenize(CharSequence text, int from, int to, List<Token> tokens) {
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                i++;
+            } else if (isPunctuation(c)) {
+                tokens.add(new Token(Token.Kind.PUNCTUATION, String.valueOf(c), i));
+                i++;
+            } else {
+                int start = i;
+                while (i < to && !isWhitespace(text.charAt(i)) && !isPunctuation(text.charAt(i))) {
+                    i++;
+                }
+                String word = text.subSequence(start, i).toString();
+                tokens.add(new Token(classify(word), word, start));
+            }
+        }
+    }
+
+    static Token.Kind classify(String word) {
+        if (KEYWORDS.contains(word)) {
+            return Token.Kind.KEYWORD;
+        } else if (isNumber(word)) {
+            return Token.Kind.NUMBER;
+        } else if (isVariable(word)) {
+            return Token.Kind.VARIABLE;
+        } else if (word.equals("=")) {
+            return Token.Kind.PUNCTUATION;
+        }
+        return Token.Kind.OTHER;
+    }
+
+    /**
+     * Matches -?[1-9][0-9]*|0
+     */
+    static boolean isNumber(String word) {
+        if (word.equals("0")) {
+            return true;
+        }
+        int i = word.startsWith("-") ? 1 : 0;
+        if (i >= word.length() || word.charAt(i) < '1' || word.charAt(i) > '9') {
+            return false;
+        }
+        for (i++; i < word.length(); i++) {
+            if (word.charAt(i) < '0' || word.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches \$[A-Za-z][A-Za-z0-9]*
+     */
+    static boolean isVariable(String word) {
+        if (word.length() < 2 || word.charAt(0) != '$' || !isLetter(word.charAt(1))) {
+            return false;
+        }
+        for (int i = 2; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!isLetter(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    /**
+     * Same characters as \s in a regex
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    static boolean isPunctuation(char c) {
+        return c == '{' || c == '}' || c == '(' || c == ')' || c == ',' || c == ';';
+    }
+}
+
+/**
+ * A single token from the program text, with its kind worked out by the lexer
+ * and where it starts in the text
+ */
+class Token {
+    enum Kind { KEYWORD, NUMBER, VARIABLE, PUNCTUATION, OTHER }
+
+    final Kind kind;
+    final String text;
+    final int offset;
+
+    Token(Kind kind, String text, int offset) {
+        this.kind = kind;
+        this.text = text;
+        this.offset = offset;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
+
+/**
+ * Cursor over the tokens that the parser consumes: either all the tokens of a text,
+ * or tokens read from a Reader as the parser needs them
+ */
+class Tokens {
+    private Token[] tokens;
+    private int count;  // how many of the tokens array are filled in
+    private int pos = 0;
+    private ReaderLexer source;  // where more tokens come from, or null if there are no more
+
+    Tokens(Token[] tokens) {
+        this.tokens = tokens;
+        this.count = tokens.length;
+    }
+
+    /**
+     * Reads the tokens from the reader a few at a time. The parser never looks more than
+     * a few tokens ahead, so only those, and the last token consumed, are kept.
+     */
+    Tokens(Reader in) {
+        this.tokens = new Token[16];
+        this.count = 0;
+        this.source = new ReaderLexer(in);
+    }
+
+    boolean hasNext() {
+        return fill(0);
+    }
+
+    /**
+     * Returns the token i places ahead without consuming anything, or null past the end
+     * (i can be -1, for the token consumed last)
+     */
+    Token peek(int i) {
+        return (i < 0 || fill(i)) ? tokens[pos + i] : null;
+    }
+
+    Token peek() {
+        return peek(0);
+    }
+
+    Token next() {
+        fill(0);
+        return tokens[pos++];
+    }
+
+    /**
+     * Skips forward to the first token that starts at or after the given offset in the text
+     */
+    void skipTo(int offset) {
+        if (source != null) {
+            while (fill(0) && tokens[pos].offset < offset) {
+                pos++;
+            }
+            return;
+        }
+        int low = pos, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens[mid].offset < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        pos = low;
+    }
+
+    /**
+     * Makes sure the token i places ahead has been read, if there is one
+     */
+    private boolean fill(int i) {
+        while (pos + i >= count) {
+            if (source == null) {
+                return false;
+            }
+            Token token;
+            try {
+                token = source.next();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (token == null) {
+                source = null;  // the end of the text
+                return false;
+            }
+            if (count == tokens.length) {
+                int consumed = pos - 1;  // all but the last token consumed can go
+                if (consumed > 0) {
+                    System.arraycopy(tokens, consumed, tokens, 0, count - consumed);
+                    Arrays.fill(tokens, count - consumed, count, null);
+                    count -= consumed;
+                    pos -= consumed;
+                } else {
+                    tokens = Arrays.copyOf(tokens, count * 2);
+                }
+            }
+            tokens[count++] = token;
+        }
+        return true;
+    }
+}
+
+/**
+ * Splits text from a Reader into tokens one at a time, the same way as Lexer.tokenize.
+ * The text is read in chunks, so only one chunk and the current word are held in memory.
+ */
+class ReaderLexer {
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0, limit = 0;
+    private int offset = 0;  // where buffer[0] is in the text
+    private final StringBuilder word = new StringBuilder();
+
+    ReaderLexer(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * The next token, or null at the end of the text
+     */
+    Token next() throws IOException {
+        int c = peekChar();
+        while (c >= 0 && Lexer.isWhitespace((char) c)) {
+            pos++;
+            c = peekChar();
+        }
+        if (c < 0) {
+            return null;
+        }
+        int start = offset + pos;
+        if (Lexer.isPunctuation((char) c)) {
+            pos++;
+            return new Token(Token.Kind.PUNCTUATION, String.valueOf((char) c), start);
+        }
+        word.setLength(0);
+        while (c >= 0 && !Lexer.isWhitespace((char) c) && !Lexer.isPunctuation((char) c)) {
+            word.append((char) c);
+            pos++;
+            c = peekChar();
+        }
+        String text = word.toString();
+        return new Token(Lexer.classify(text), text, start);
+    }
+
+    /**
+     * The next character, without consuming it, or -1 at the end of the text
+     */
+    private int peekChar() throws IOException {
+        if (pos == limit) {
+            offset += limit;
+            pos = 0;
+            limit = Math.max(in.read(buffer), 0);
+            if (limit == 0) {
+                return -1;
+            }
+        }
+        return buffer[pos];
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a binary record of a match, one entry per turn, for MatchReplay to read back.
+ *
+ * The file starts with a header (magic number, world size, number of robots,
+ * keyframe interval). Each turn then has a kind byte, the turn number, and 7 bytes
+ * per robot (x, y, fuel as shorts, then direction, shield and eliminated packed
+ * into a byte). Keyframe turns list every barrel; the turns in between only list
+ * the barrels taken and added since the turn before, so a replay can jump to any
+ * turn by starting from the keyframe before it.
+ */
+public class MatchRecorder implements Closeable {
+
+    static final int MAGIC = 0x52424D31;  // "RBM1"
+    static final byte KEYFRAME = 0, DELTA = 1;
+    static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    private final DataOutputStream out;
+    private final int keyframeInterval;
+    private int ticks = 0;
+    private boolean headerWritten = false;
+    private boolean failed = false;
+
+    // barrels taken and added since the last turn was written, as y * size + x
+    private int[] removed = new int[16], added = new int[16];
+    private int numRemoved = 0, numAdded = 0;
+
+    public MatchRecorder(File file) throws IOException {
+        this(file, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    public MatchRecorder(File file, int keyframeInterval) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Called by the "World" only, when a barrel is taken
+     */
+    void barrelRemoved(int cell) {
+        if (numRemoved == removed.length) {
+            removed = Arrays.copyOf(removed, numRemoved * 2);
+        }
+        removed[numRemoved++] = cell;
+    }
+
+    /**
+     * Called by the "World" only, when a barrel is added
+     */
+    void barrelAdded(int cell) {
+        if (numAdded == added.length) {
+            added = Arrays.copyOf(added, numAdded * 2);
+        }
+        added[numAdded++] = cell;
+    }
+
+    /**
+     * Called by the "World" only, with its snapshot at the start of the match and after every update.
+     * A write error is reported once and ends the recording, but not the match.
+     */
+    void recordTick(WorldSnapshot world) {
+        if (failed) {
+            return;
+        }
+        try {
+            int numRobots = world.getNumRobots();
+            if (!headerWritten) {
+                if (world.size > Short.MAX_VALUE) {
+                    throw new IOException("World too big to record");
+                }
+                out.writeInt(MAGIC);
+                out.writeInt(world.size);
+                out.writeInt(numRobots);
+                out.writeInt(keyframeInterval);
+                headerWritten = true;
+            }
+            boolean keyframe = ticks % keyframeInterval == 0;
+            out.writeByte(keyframe ? KEYFRAME : DELTA);
+            out.writeInt(world.turn);
+            for (int id = 1; id <= numRobots; id++) {
+                RobotSnapshot robot = world.getRobot(id);
+                out.writeShort(robot.x);
+                out.writeShort(robot.y);
+                out.writeShort(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, robot.fuel)));
+                out.writeByte(robot.dir
+                              | (robot.shield ? 4 : 0)
+                              | (robot.eliminated ? 8 : 0));
+            }
+            if (keyframe) {
+                out.writeInt(world.getNumBarrels());
+                for (int i = 0; i < world.getNumBarrels(); i++) {
+                    out.writeInt(world.getBarrelCell(i));
+                }
+            } else {
+                writeCells(removed, numRemoved);
+                writeCells(added, numAdded);
+            }
+            numRemoved = 0;
+            numAdded = 0;
+            ticks++;
+        } catch (IOException e) {
+            failed = true;
+            System.out.println("Recording failed: " + e.getMessage());
+        }
+    }
+
+    private void writeCells(int[] cells, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(cells[i]);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
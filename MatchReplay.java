@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads back a match written by MatchRecorder.
+ * The file is memory mapped and indexed once when it is opened, so any turn can be
+ * reached by jumping to the keyframe before it and applying at most a keyframe
+ * interval of barrel changes; playing forward one turn at a time only applies one.
+ *
+ *   java MatchReplay match.rbm [turn]
+ * prints a summary of the match (and the state on the given turn).
+ */
+public class MatchReplay {
+
+    private static final int MAX_ROBOTS = 1 << 16;
+
+    private final MappedByteBuffer data;
+    private final int size, numRobots;
+    private long[] offsets = new long[256];  // where each tick starts in the file
+    private int ticks = 0;
+    private final ReplayFrame frame;
+    private int current = -1;  // the tick frame holds
+
+    public MatchReplay(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Replay file too big: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.capacity() < 16 || data.getInt() != MatchRecorder.MAGIC) {
+            throw new IOException("Not a match recording: " + file);
+        }
+        size = data.getInt();
+        numRobots = data.getInt();
+        data.getInt();  // keyframe interval
+        if (size < 1 || size > Short.MAX_VALUE || numRobots < 1 || numRobots > MAX_ROBOTS) {
+            throw new IOException("Damaged match recording (world size " + size + ", " + numRobots + " robots): " + file);
+        }
+        try {
+            while (data.hasRemaining()) {
+                if (ticks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, ticks * 2);
+                }
+                offsets[ticks++] = data.position();
+                skipTick();
+            }
+        } catch (BufferUnderflowException e) {
+            // the recording was cut off (eg. the match is still being written), or the last tick
+            // is damaged: ignore the partial tick
+            ticks--;
+        }
+        frame = new ReplayFrame(size, numRobots);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int numRobots() {
+        return numRobots;
+    }
+
+    /**
+     * The number of turns recorded, including the starting position
+     */
+    public int ticks() {
+        return ticks;
+    }
+
+    /**
+     * The state of the world on the given tick (0 is the start of the match).
+     * The same frame object is updated on every call, so copy anything needed from it first.
+     */
+    public ReplayFrame frame(int tick) {
+        if (tick < 0 || tick >= ticks) {
+            throw new IndexOutOfBoundsException("No tick " + tick + " in a replay of " + ticks);
+        }
+        int keyframe = tick;
+        while (data.get((int) offsets[keyframe]) != MatchRecorder.KEYFRAME) {
+            keyframe--;
+        }
+        if (current < keyframe || current > tick) {
+            // start again from the keyframe, unless we can carry on from the current tick
+            current = keyframe - 1;
+        }
+        while (current < tick) {
+            current++;
+            readTick(offsets[current]);
+        }
+        return frame;
+    }
+
+    private void readTick(long offset) {
+        data.position((int) offset);
+        byte kind = data.get();
+        frame.turn = data.getInt();
+        for (int id = 1; id <= numRobots; id++) {
+            frame.x[id] = data.getShort();
+            frame.y[id] = data.getShort();
+            frame.fuel[id] = data.getShort();
+            int flags = data.get();
+            frame.dir[id] = flags & 3;
+            frame.shield[id] = (flags & 4) != 0;
+            frame.eliminated[id] = (flags & 8) != 0;
+        }
+        GridIndex barrels = frame.barrels;
+        if (kind == MatchRecorder.KEYFRAME) {
+            barrels.clear();
+            for (int n = data.getInt(); n > 0; n--) {
+                int cell = data.getInt();
+                barrels.add(cell % size, cell / size);
+            }
+        } else {
+            for (int n = data.getInt(); n > 0; n--) {
+                int cell = data.getInt();
+                barrels.remove(cell % size, cell / size);
+            }
+            for (int n = data.getInt(); n > 0; n--) {
+                int cell = data.getInt();
+                barrels.add(cell % size, cell / size);
+            }
+        }
+    }
+
+    private void skipTick() {
+        byte kind = data.get();
+        if (kind != MatchRecorder.KEYFRAME && (kind != MatchRecorder.DELTA || ticks == 1)) {
+            throw new BufferUnderflowException();  // not a tick, or the first isn't a keyframe
+        }
+        skip(4 + 7 * numRobots);
+        int lists = (kind == MatchRecorder.KEYFRAME) ? 1 : 2;
+        for (int i = 0; i < lists; i++) {
+            int n = data.getInt();
+            if (n < 0 || n > data.remaining() / 4) {
+                throw new BufferUnderflowException();
+            }
+            skip(4 * n);
+        }
+    }
+
+    /**
+     * Moves past the given number of bytes, failing the same way as reading them would if they aren't all there
+     */
+    private void skip(int bytes) {
+        if (bytes > data.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        data.position(data.position() + bytes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java MatchReplay match.rbm [turn]");
+            return;
+        }
+        long start = System.nanoTime();
+        MatchReplay replay = new MatchReplay(new File(args[0]));
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d turns, %d robots, world size %d (indexed in %.1f ms)%n",
+                          replay.ticks() - 1, replay.numRobots(), replay.size(), elapsed / 1e6);
+        if (replay.ticks() == 0) {
+            return;
+        }
+
+        // walk the whole match, collecting some statistics for each robot
+        int n = replay.numRobots();
+        int[] moves = new int[n + 1], turns = new int[n + 1], shielded = new int[n + 1], refuels = new int[n + 1];
+        int[] outAt = new int[n + 1];
+        ReplayFrame previous = replay.frame(0).copy();
+        for (int tick = 1; tick < replay.ticks(); tick++) {
+            ReplayFrame f = replay.frame(tick);
+            for (int id = 1; id <= n; id++) {
+                if (previous.eliminated[id]) {
+                    continue;
+                }
+                if (f.x[id] != previous.x[id] || f.y[id] != previous.y[id]) moves[id]++;
+                if (f.dir[id] != previous.dir[id]) turns[id]++;
+                if (f.shield[id]) shielded[id]++;
+                if (f.fuel[id] > previous.fuel[id]) refuels[id]++;
+                if (f.eliminated[id]) outAt[id] = f.turn;
+            }
+            previous = f.copy();
+        }
+        System.out.printf("%-6s %6s %6s %6s %8s %8s %8s%n", "Robot", "Fuel", "Moves", "Turns", "Shielded", "Refuels", "Out at");
+        for (int id = 1; id <= n; id++) {
+            System.out.printf("%-6d %6d %6d %6d %8d %8d %8s%n", id, previous.fuel[id], moves[id], turns[id],
+                              shielded[id], refuels[id], (outAt[id] == 0) ? "-" : "" + outAt[id]);
+        }
+
+        if (args.length > 1) {
+            System.out.println(replay.frame(Integer.parseInt(args[1])));
+        }
+    }
+}
+
+/**
+ * The state of a recorded match on one turn. Robot arrays are indexed by robot id (from 1).
+ */
+class ReplayFrame {
+    int turn;
+    final int[] x, y, dir, fuel;
+    final boolean[] shield, eliminated;
+    final GridIndex barrels;
+
+    ReplayFrame(int size, int numRobots) {
+        x = new int[numRobots + 1];
+        y = new int[numRobots + 1];
+        dir = new int[numRobots + 1];
+        fuel = new int[numRobots + 1];
+        shield = new boolean[numRobots + 1];
+        eliminated = new boolean[numRobots + 1];
+        barrels = new GridIndex(size);
+    }
+
+    /**
+     * A copy of the robots' state (but not the barrels, which are left empty)
+     */
+    ReplayFrame copy() {
+        ReplayFrame copy = new ReplayFrame(1, x.length - 1);
+        copy.turn = turn;
+        System.arraycopy(x, 0, copy.x, 0, x.length);
+        System.arraycopy(y, 0, copy.y, 0, y.length);
+        System.arraycopy(dir, 0, copy.dir, 0, dir.length);
+        System.arraycopy(fuel, 0, copy.fuel, 0, fuel.length);
+        System.arraycopy(shield, 0, copy.shield, 0, shield.length);
+        System.arraycopy(eliminated, 0, copy.eliminated, 0, eliminated.length);
+        return copy;
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder("Turn " + turn + ":\n");
+        String[] dirs = { "NORTH", "WEST", "SOUTH", "EAST" };
+        for (int id = 1; id < x.length; id++) {
+            text.append(String.format("  robot %d @(%2d,%2d) dir:%-5s fuel:%3d %s%s%n", id, x[id], y[id],
+                                      dirs[dir[id]], fuel[id], shield[id] ? "shielded" : "unshielded",
+                                      eliminated[id] ? " (out)" : ""));
+        }
+        text.append("  barrels:");
+        int size = barrels.size();
+        for (int i = 0; i < barrels.count(); i++) {
+            text.append(" (").append(barrels.cell(i) % size).append(",").append(barrels.cell(i) / size).append(")");
+        }
+        return text.toString();
+    }
+}
@@ -1,5 +1,7 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.regex.*;
 
 /**
  * See assignment handout for the grammar.
@@ -11,14 +13,21 @@ import java.util.regex.*;
 public class Parser {
 
 
-    // Useful Patterns
+    // Useful tokens and token sets
 
-    static final Pattern NUMPAT = Pattern.compile("-?[1-9][0-9]*|0");
-    static final Pattern OPENPAREN = Pattern.compile("\\(");
-    static final Pattern CLOSEPAREN = Pattern.compile("\\)");
-    static final Pattern OPENBRACE = Pattern.compile("\\{");
-    static final Pattern CLOSEBRACE = Pattern.compile("\\}");
-    private int indentLevel = 0;
+    static final String OPENPAREN = "(";
+    static final String CLOSEPAREN = ")";
+    static final String OPENBRACE = "{";
+    static final String CLOSEBRACE = "}";
+    static final Set<String> LOGOPS = Set.of("and", "or");
+    static final Set<String> RELOPS = Set.of("lt", "gt", "eq");
+    static final Set<String> ACTIONS = Set.of("move", "turnL", "turnR", "turnAround", "shieldOn", "shieldOff", "takeFuel", "wait");
+    static final Set<String> SENSORS = Set.of("fuelLeft", "oppLR", "oppFB", "numBarrels", "wallDist");
+    static final Set<String> ARG_SENSORS = Set.of("barrelLR", "barrelFB");
+    static final Set<String> MATHOPS = Set.of("add", "sub", "mul", "div");
+    int indentLevel = 0;
+    Map<String, Integer> variableSlots = new HashMap<>();
+    private List<ParserFailureException> errors;  // the errors so far, when carrying on after them (else null)
 
     //----------------------------------------------------------------
 
@@ -28,24 +37,116 @@ public class Parser {
      * Returns the parse tree.
      */
     ProgramNode parse(Scanner s) {
-        // Set the delimiter for the scanner.
-        s.useDelimiter("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
-        return parseProg(s);
+        // Read the rest of the input in one go; the Lexer does the tokenizing.
+        s.useDelimiter("\\z");
+        return parse(s.hasNext() ? s.next() : "");
     }
 
-    ProgramNode parseProg(Scanner s) {
+    /**
+     * Parses the text of a program.
+     * Returns the parse tree.
+     */
+    ProgramNode parse(String text) {
+        variableSlots = new HashMap<>();
+        return parseProg(new Tokens(Lexer.tokenize(text)));
+    }
+
+    /**
+     * Parses a program as it is read, without reading all the text in first,
+     * so a program of any length can be parsed in a small, fixed amount of memory
+     * (besides the parse tree itself).
+     * Returns the parse tree.
+     */
+    ProgramNode parse(Reader in) throws IOException {
+        variableSlots = new HashMap<>();
+        try {
+            return parseProg(new Tokens(in));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parses the text of a program, carrying on after an error instead of stopping at the first.
+     * Each error is added to diagnostics, in order, and the statement it was in is left out.
+     * Returns the parse tree of the statements that did parse (or null if the text is empty).
+     */
+    ProgramNode parse(String text, List<Diagnostic> diagnostics) {
+        variableSlots = new HashMap<>();
+        errors = new ArrayList<>();
+        try {
+            ProgramNode program = parseProg(new Tokens(Lexer.tokenize(text)));
+            diagnostics.addAll(Diagnostic.locate(text, errors));
+            return program;
+        } finally {
+            errors = null;
+        }
+    }
+
+    ProgramNode parseProg(Tokens s) {
         if (!s.hasNext()) {
-            System.out.println("Provided file is empty, running default program.");
+            if (errors == null) {
+                System.out.println("Provided file is empty, running default program.");
+            }
             return null;
         }
         List<ProgNode> statements = new ArrayList<>();
         while (s.hasNext()) {
-            statements.add(parseStatement(s));
+            ProgNode statement = parseStatementOrSkip(s);
+            if (statement != null) {
+                statements.add(statement);
+            } else if (nextIs(CLOSEBRACE, s)) {
+                s.next();  // a '}' with no block to close, which has been reported
+            }
+        }
+        return new ProgramNode(statements, variableSlots.size());
+    }
+
+    /**
+     * Parses a statement. When carrying on after errors, a statement with an error in it
+     * is noted and skipped, and null is returned.
+     */
+    ProgNode parseStatementOrSkip(Tokens s) {
+        if (errors == null) {
+            return parseStatement(s);
+        }
+        int indent = indentLevel;
+        try {
+            return parseStatement(s);
+        } catch (ParserFailureException e) {
+            indentLevel = indent;  // the failure may have been in the middle of a block
+            errors.add(e);
+            skipStatement(s);
+            return null;
+        }
+    }
+
+    /**
+     * Skips the rest of a statement: up to and including the next ';' or block (with any
+     * elif and else blocks after it), but not past the '}' of the block the statement is in
+     */
+    static void skipStatement(Tokens s) {
+        int depth = 0;
+        while (s.hasNext()) {
+            String text = s.peek().text;
+            if (text.equals(CLOSEBRACE) && depth == 0) {
+                return;
+            }
+            s.next();
+            if (text.equals(OPENBRACE)) {
+                depth++;
+            } else if (text.equals(CLOSEBRACE)) {
+                depth--;
+                if (depth == 0 && !nextIs("elif", s) && !nextIs("else", s)) {
+                    return;
+                }
+            } else if (text.equals(";") && depth == 0) {
+                return;
+            }
         }
-        return new ProgramNode(statements);
     }
 
-    ProgNode parseStatement(Scanner s) {
+    ProgNode parseStatement(Tokens s) {
         if (checkFor("loop", s)) {
             return new LoopNode(parseBlock(s));
         } else if (checkFor("if", s)) {
@@ -68,12 +169,12 @@ public class Parser {
             BooleanNode cond = parseCond(s);
             require(CLOSEPAREN, "Missing ')'", s);
             return new WhileNode(parseBlock(s), cond);
-        } else if (s.hasNext("\\$[A-Za-z][A-Za-z0-9]*")) {
-            String name = s.next();
-            require("\\=", "Expected '='", s);
+        } else if (nextIs(Token.Kind.VARIABLE, s)) {
+            String name = s.next().text;
+            require("=", "Expected '='", s);
             IntNode value = parseExpression(s);
             require(";", "Missing semicolon", s);
-            return new AssignNode(name, value);
+            return new AssignNode(name, slotFor(name), value);
         } else {
             ActionNode action = parseAction(s);
             require(";", "Missing semicolon", s);
@@ -81,14 +182,14 @@ public class Parser {
         }
     }
 
-    BooleanNode parseCond(Scanner s) {
+    BooleanNode parseCond(Tokens s) {
         if (checkFor("not", s)) {
             require(OPENPAREN, "Missing '('", s);
             BooleanNode cond = parseCond(s);
             require(CLOSEPAREN, "Missing ')'", s);
             return new NotNode(cond);
-        } else if (s.hasNext("and|or")) {
-            String logOp = s.next();
+        } else if (nextIs(LOGOPS, s)) {
+            String logOp = s.next().text;
             require(OPENPAREN, "Missing '('", s);
             BooleanNode cond1 = parseCond(s);
             require(",", "Missing ','", s);
@@ -100,7 +201,7 @@ public class Parser {
                 default -> throw new IllegalStateException("Invalid operator"); // this should never run
             };
         } else {
-            String relop = require("lt|gt|eq", "Invalid operator", s);
+            String relop = require(RELOPS, "Invalid operator", s);
             require(OPENPAREN, "Missing '('", s);
             IntNode expr1 = parseExpression(s);
             require(",", "Missing ','", s);
@@ -110,23 +211,36 @@ public class Parser {
         }
     }
 
-    BlockNode parseBlock(Scanner s) {
+    BlockNode parseBlock(Tokens s) {
         indentLevel++;
         List<ProgNode> statements = new ArrayList<>();
         require(OPENBRACE, "Missing '{'", s);
+        int errorsBefore = (errors == null) ? 0 : errors.size();
         while (!checkFor(CLOSEBRACE, s)) {
-            statements.add(parseStatement(s));
+            if (errors != null && !s.hasNext()) {
+                errors.add(failure("Missing '}'", s));
+                break;
+            }
+            ProgNode statement = parseStatementOrSkip(s);
+            if (statement != null) {
+                statements.add(statement);
+            }
         }
         if (statements.isEmpty()) {
-            fail("Empty loop", s);
+            if (errors == null) {
+                fail("Empty loop", s);
+            } else if (errors.size() == errorsBefore) {
+                // (a block whose statements all had errors has been reported already)
+                errors.add(new ParserFailureException(failure("Empty loop", s).getMessage(), s.peek(-1).offset));
+            }
         }
         BlockNode node = new BlockNode(statements, indentLevel);
         indentLevel--;
         return node;
     }
 
-    ActionNode parseAction(Scanner s) {
-        String action = require("move|turnL|turnR|turnAround|shieldOn|shieldOff|takeFuel|wait", "Invalid action", s);
+    ActionNode parseAction(Tokens s) {
+        String action = require(ACTIONS, "Invalid action", s);
         if ((action.equals("move") || action.equals("wait")) && checkFor(OPENPAREN, s)) {
             IntNode expr = parseExpression(s);
             require(CLOSEPAREN, "Missing ')'", s);
@@ -135,13 +249,13 @@ public class Parser {
         return new ActionNode(action);
     }
 
-    IntNode parseExpression(Scanner s) {
-        if (s.hasNext(NUMPAT)) {
-            return new NumberNode(s.nextInt());
-        } else if (s.hasNext("fuelLeft|oppLR|oppFB|numBarrels|wallDist")) {
-            return new SensorNode(s.next());
-        } else if (s.hasNext("barrelLR|barrelFB")) {
-            String sensor = s.next();
+    IntNode parseExpression(Tokens s) {
+        if (nextIs(Token.Kind.NUMBER, s)) {
+            return new NumberNode(requireInt("Invalid number", s));
+        } else if (nextIs(SENSORS, s)) {
+            return new SensorNode(s.next().text);
+        } else if (nextIs(ARG_SENSORS, s)) {
+            String sensor = s.next().text;
             if (checkFor(OPENPAREN, s)) {
                 IntNode arg = parseExpression(s);
                 require(CLOSEPAREN, "Expected ')'", s);
@@ -149,10 +263,11 @@ public class Parser {
             } else {
                 return new SensorNode(sensor);
             }
-        } else if (s.hasNext("\\$[A-Za-z][A-Za-z0-9]*")) {
-            return new VariableNode(s.next());
+        } else if (nextIs(Token.Kind.VARIABLE, s)) {
+            String name = s.next().text;
+            return new VariableNode(name, slotFor(name));
         } else {
-            String op = require("add|sub|mul|div", "Invalid operation", s);
+            String op = require(MATHOPS, "Invalid operation", s);
             require(OPENPAREN, "Missing '('", s);
             IntNode expr1 = parseExpression(s);
             require(",", "Missing ','", s);
@@ -162,86 +277,105 @@ public class Parser {
         }
     }
 
+    /**
+     * Gives each variable name its own index into the VariableStorage,
+     * so running the program never has to look names up
+     */
+    int slotFor(String name) {
+        return variableSlots.computeIfAbsent(name, k -> variableSlots.size());
+    }
+
 
     //----------------------------------------------------------------
     // utility methods for the parser
     // - fail(..) reports a failure and throws exception
-    // - require(..) consumes and returns the next token as long as it matches the pattern
-    // - requireInt(..) consumes and returns the next token as an int as long as it matches the pattern
-    // - checkFor(..) peeks at the next token and only consumes it if it matches the pattern
+    // - failure(..) makes the exception that fail(..) throws
+    // - require(..) consumes and returns the next token as long as it matches
+    // - requireInt(..) consumes and returns the next token as an int as long as it is a number
+    // - checkFor(..) peeks at the next token and only consumes it if it matches
+    // - nextIs(..) peeks at the next token without consuming it
 
     /**
      * Report a failure in the parser.
      */
-    static void fail(String message, Scanner s) {
-        String msg = message + "\n   @ ...";
-        for (int i = 0; i < 5 && s.hasNext(); i++) {
-            msg += " " + s.next();
+    static void fail(String message, Tokens s) {
+        throw failure(message, s);
+    }
+
+    /**
+     * The failure to report, showing the next few tokens, and where it is in the text
+     */
+    static ParserFailureException failure(String message, Tokens s) {
+        StringBuilder msg = new StringBuilder(message).append("\n   @ ...");
+        for (int i = 0; i < 5 && s.peek(i) != null; i++) {
+            msg.append(" ").append(s.peek(i).text);
         }
-        throw new ParserFailureException(msg + "...");
+        return new ParserFailureException(msg + "...", s.hasNext() ? s.peek().offset : -1);
     }
 
     /**
-     * Requires that the next token matches a pattern if it matches, it consumes
+     * Requires that the next token is the given text if it is, it consumes
      * and returns the token, if not, it throws an exception with an error
      * message
      */
-    static String require(String p, String message, Scanner s) {
-        if (s.hasNext(p)) {
-            return s.next();
+    static String require(String text, String message, Tokens s) {
+        if (nextIs(text, s)) {
+            return s.next().text;
         }
         fail(message, s);
         return null;
     }
 
-    static String require(Pattern p, String message, Scanner s) {
-        if (s.hasNext(p)) {
-            return s.next();
+    static String require(Set<String> options, String message, Tokens s) {
+        if (nextIs(options, s)) {
+            return s.next().text;
         }
         fail(message, s);
         return null;
     }
 
     /**
-     * Requires that the next token matches a pattern (which should only match a
-     * number) if it matches, it consumes and returns the token as an integer
-     * if not, it throws an exception with an error message
+     * Requires that the next token is a number if it is, it consumes and
+     * returns the token as an integer if not, it throws an exception with an
+     * error message
      */
-    static int requireInt(String p, String message, Scanner s) {
-        if (s.hasNext(p) && s.hasNextInt()) {
-            return s.nextInt();
-        }
-        fail(message, s);
-        return -1;
-    }
-
-    static int requireInt(Pattern p, String message, Scanner s) {
-        if (s.hasNext(p) && s.hasNextInt()) {
-            return s.nextInt();
+    static int requireInt(String message, Tokens s) {
+        if (nextIs(Token.Kind.NUMBER, s)) {
+            try {
+                int value = Integer.parseInt(s.peek().text);
+                s.next();
+                return value;
+            } catch (NumberFormatException e) {
+                // too big for an int, fall through to the failure
+            }
         }
         fail(message, s);
         return -1;
     }
 
     /**
-     * Checks whether the next token in the scanner matches the specified
-     * pattern, if so, consumes the token and return true. Otherwise returns
-     * false without consuming anything.
+     * Checks whether the next token is the given text, if so, consumes the
+     * token and return true. Otherwise returns false without consuming
+     * anything.
      */
-    static boolean checkFor(String p, Scanner s) {
-        if (s.hasNext(p)) {
+    static boolean checkFor(String text, Tokens s) {
+        if (nextIs(text, s)) {
             s.next();
             return true;
         }
         return false;
     }
 
-    static boolean checkFor(Pattern p, Scanner s) {
-        if (s.hasNext(p)) {
-            s.next();
-            return true;
-        }
-        return false;
+    static boolean nextIs(String text, Tokens s) {
+        return s.hasNext() && s.peek().text.equals(text);
+    }
+
+    static boolean nextIs(Set<String> options, Tokens s) {
+        return s.hasNext() && options.contains(s.peek().text);
+    }
+
+    static boolean nextIs(Token.Kind kind, Tokens s) {
+        return s.hasNext() && s.peek().kind == kind;
     }
 
 }
@@ -275,27 +409,27 @@ interface BooleanNode {
  * Node representing the program
  * (The root node of the generated program tree)
  * Stores any statements in the program
+ * Like all the nodes, it never changes after it is made, and keeps no state
+ * between runs, so one program can be run by many robots at once (see ProgramCache)
  */
 class ProgramNode {
-    List<ProgNode> statements;
+    final List<ProgNode> statements;
+    final int numVars;
 
-    ProgramNode(List<ProgNode> statements) {
-        this.statements = statements;
+    ProgramNode(List<ProgNode> statements, int numVars) {
+        this.statements = List.copyOf(statements);
+        this.numVars = numVars;
     }
     
     public void execute(Robot robot) {
-        VariableStorage vars = new VariableStorage();
+        VariableStorage vars = new VariableStorage(numVars);
         for (ProgNode statement : statements) {
             statement.execute(robot, vars);
         }
     }
 
     public String toString() {
-        String toReturn = "";
-        for (ProgNode statement : statements) {
-            toReturn += statement.toString();
-        }
-        return toReturn.substring(0, toReturn.length() - 1);
+        return ProgramPrinter.toString(this);
     }
 }
 
@@ -304,11 +438,12 @@ class ProgramNode {
  * Stores the type of action, and the amount if it exists
  */
 class ActionNode implements ProgNode {
-    String actionType;
-    IntNode amount = null;
+    final String actionType;
+    final IntNode amount;
 
     ActionNode(String type) {
         actionType = type;
+        amount = null;
     }
 
     ActionNode(String type, IntNode amt) {
@@ -340,7 +475,7 @@ class ActionNode implements ProgNode {
     }
 
     public String toString() {
-        return actionType + ";";
+        return ProgramPrinter.statementToString(this);
     }
 }
 
@@ -350,7 +485,7 @@ class ActionNode implements ProgNode {
  * Executes them forever (until robot runs out of fuel)
  */
 class LoopNode implements ProgNode {
-    BlockNode block;
+    final BlockNode block;
 
     LoopNode(BlockNode block) {
         this.block = block;
@@ -360,11 +495,12 @@ class LoopNode implements ProgNode {
     public void execute(Robot robot, VariableStorage vars) {
         while (true) {
             block.execute(robot, vars);
+            robot.checkCancelled();
         }
     }
 
     public String toString() {
-        return "loop" + this.block.toString();
+        return ProgramPrinter.statementToString(this);
     }
 }
 
@@ -374,11 +510,11 @@ class LoopNode implements ProgNode {
  * Also stores an indent level for pretty printing
  */
 class BlockNode implements ProgNode {
-    List<ProgNode> statements;
-    int indent;
+    final List<ProgNode> statements;
+    final int indent;
 
     BlockNode(List<ProgNode> statements, int indent) {
-        this.statements = statements;
+        this.statements = List.copyOf(statements);
         this.indent = indent;
     }
 
@@ -390,12 +526,7 @@ class BlockNode implements ProgNode {
     }
 
     public String toString() {
-        String toReturn = "{\n";
-        for (ProgNode statement : statements) {
-            toReturn += "    ".repeat(indent) + statement.toString();
-        }
-        toReturn += "    ".repeat(indent - 1) + "}";
-        return toReturn;
+        return ProgramPrinter.statementToString(this);
     }
 }
 
@@ -405,15 +536,15 @@ class BlockNode implements ProgNode {
  * Stores optional else block
  */
 class IfNode implements ProgNode {
-    List<ConditionBlock> conditionPairs;
-    BlockNode elseBlock = null;
+    final List<ConditionBlock> conditionPairs;
+    final BlockNode elseBlock;
 
     IfNode(List<ConditionBlock> conditionPairs) {
-        this.conditionPairs = conditionPairs;
+        this(conditionPairs, null);
     }
 
     IfNode(List<ConditionBlock> conditionPairs, BlockNode elseBlock) {
-        this.conditionPairs = conditionPairs;
+        this.conditionPairs = List.copyOf(conditionPairs);
         this.elseBlock = elseBlock;
     }
 
@@ -432,17 +563,7 @@ class IfNode implements ProgNode {
     }
 
     public String toString() {
-        ConditionBlock firstIf = conditionPairs.get(0);
-        String toReturn = "if(" + firstIf.cond.toString() + ")" + firstIf.block.toString();
-        if (conditionPairs.size() > 1) {
-            for (ConditionBlock pair : conditionPairs) {
-                toReturn += " elif(" + pair.cond.toString() + ")" + pair.block.toString();
-            }
-        }
-        if (elseBlock != null) {
-            toReturn += " else" + this.elseBlock.toString();
-        }
-        return toReturn;
+        return ProgramPrinter.statementToString(this);
     }
 }
 
@@ -451,8 +572,8 @@ class IfNode implements ProgNode {
  * Stores the block in the loop, and condition for stopping
  */
 class WhileNode implements ProgNode {
-    BlockNode block;
-    BooleanNode cond;
+    final BlockNode block;
+    final BooleanNode cond;
 
     WhileNode(BlockNode block, BooleanNode cond) {
         this.block = block;
@@ -463,11 +584,12 @@ class WhileNode implements ProgNode {
     public void execute(Robot robot, VariableStorage vars) {
         while (cond.evaluate(robot, vars)) {
             block.execute(robot, vars);
+            robot.checkCancelled();
         }
     }
 
     public String toString() {
-        return "while(" + cond.toString() + ")" + this.block.toString();
+        return ProgramPrinter.statementToString(this);
     }
 }
 
@@ -476,8 +598,8 @@ class WhileNode implements ProgNode {
  * Stores the two conditions to compare
  */
 class AndNode implements BooleanNode {
-    BooleanNode cond1;
-    BooleanNode cond2;
+    final BooleanNode cond1;
+    final BooleanNode cond2;
 
     AndNode(BooleanNode cond1, BooleanNode cond2) {
         this.cond1 = cond1;
@@ -490,7 +612,7 @@ class AndNode implements BooleanNode {
     }
 
     public String toString() {
-        return "and(" + cond1.toString() + ", " + cond2.toString() + ")";
+        return ProgramPrinter.conditionToString(this);
     }
 }
 
@@ -499,8 +621,8 @@ class AndNode implements BooleanNode {
  * Stores the two conditions to compare
  */
 class OrNode implements BooleanNode {
-    BooleanNode cond1;
-    BooleanNode cond2;
+    final BooleanNode cond1;
+    final BooleanNode cond2;
 
     OrNode(BooleanNode cond1, BooleanNode cond2) {
         this.cond1 = cond1;
@@ -513,7 +635,7 @@ class OrNode implements BooleanNode {
     }
 
     public String toString() {
-        return "or(" + cond1.toString() + ", " + cond2.toString() + ")";
+        return ProgramPrinter.conditionToString(this);
     }
 }
 
@@ -522,7 +644,7 @@ class OrNode implements BooleanNode {
  * Stores the condition to negate
  */
 class NotNode implements BooleanNode {
-    BooleanNode cond;
+    final BooleanNode cond;
 
     NotNode(BooleanNode cond) {
         this.cond = cond;
@@ -534,7 +656,29 @@ class NotNode implements BooleanNode {
     }
 
     public String toString() {
-        return "not(" + cond + ")";
+        return ProgramPrinter.conditionToString(this);
+    }
+}
+
+/**
+ * Node representing a condition that is always true or always false
+ * (only made by the optimizer, when it works out a condition in advance)
+ * Stores the value
+ */
+class BooleanValueNode implements BooleanNode {
+    final boolean value;
+
+    BooleanValueNode(boolean value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean evaluate(Robot robot, VariableStorage vars) {
+        return value;
+    }
+
+    public String toString() {
+        return ProgramPrinter.conditionToString(this);
     }
 }
 
@@ -544,9 +688,9 @@ class NotNode implements BooleanNode {
  * Stores type of operation, and the two expressions to compare
  */
 class RelopNode implements BooleanNode {
-    String relop;
-    IntNode expr1;
-    IntNode expr2;
+    final String relop;
+    final IntNode expr1;
+    final IntNode expr2;
 
     RelopNode(String relOp, IntNode expr1, IntNode expr2) {
         this.relop = relOp;
@@ -565,7 +709,7 @@ class RelopNode implements BooleanNode {
     }
 
     public String toString() {
-        return relop + "(" + expr1.toString() + ", " + expr2.toString() + ")";
+        return ProgramPrinter.conditionToString(this);
     }
 }
 
@@ -574,11 +718,12 @@ class RelopNode implements BooleanNode {
  * Stores the name of the sensor and optional amount
  */
 class SensorNode implements IntNode {
-    String sensor;
-    IntNode amount = null;
+    final String sensor;
+    final IntNode amount;
 
     SensorNode(String sensor) {
         this.sensor = sensor;
+        this.amount = null;
     }
 
     SensorNode(String sensor, IntNode amt) {
@@ -601,7 +746,7 @@ class SensorNode implements IntNode {
     }
 
     public String toString() {
-        return sensor;
+        return ProgramPrinter.expressionToString(this);
     }
 }
 
@@ -610,7 +755,7 @@ class SensorNode implements IntNode {
  * Stores the number
  */
 class NumberNode implements IntNode {
-    int num;
+    final int num;
 
     NumberNode(int num) {
         this.num = num;
@@ -622,7 +767,7 @@ class NumberNode implements IntNode {
     }
 
     public String toString() {
-        return "" + num;
+        return ProgramPrinter.expressionToString(this);
     }
 }
 
@@ -632,9 +777,9 @@ class NumberNode implements IntNode {
  * Stores type of operation, and the two operands
  */
 class MathNode implements IntNode {
-    IntNode expr1;
-    IntNode expr2;
-    String operation;
+    final IntNode expr1;
+    final IntNode expr2;
+    final String operation;
 
     MathNode(IntNode expr1, IntNode expr2, String op) {
         this.expr1 = expr1;
@@ -655,7 +800,7 @@ class MathNode implements IntNode {
     }
 
     public String toString() {
-        return operation + "(" + expr1.toString() + ", " + expr2.toString() + ")";
+        return ProgramPrinter.expressionToString(this);
     }
 }
 
@@ -664,8 +809,8 @@ class MathNode implements IntNode {
  * Useful for repetition for if/elif statements
  */
 class ConditionBlock {
-    BlockNode block;
-    BooleanNode cond;
+    final BlockNode block;
+    final BooleanNode cond;
 
     ConditionBlock(BooleanNode cond, BlockNode block) {
         this.block = block;
@@ -675,66 +820,69 @@ class ConditionBlock {
 
 /**
  * Node representing a user-defined variable
- * Stores the name and integer value of the variable
+ * Stores the name and storage slot of the variable
  */
 class VariableNode implements IntNode {
-    String name;
-    VariableStorage vars;
+    final String name;
+    final int slot;
 
-    VariableNode(String name) {
+    VariableNode(String name, int slot) {
         this.name = name;
+        this.slot = slot;
     }
 
     @Override
     public int evaluate(Robot robot, VariableStorage vars) {
-        return vars.getVar(name);
+        return vars.getVar(slot);
     }
 
     public String toString() {
-        return name;
+        return ProgramPrinter.expressionToString(this);
     }
 }
 
 /**
  * Node representing a variable assignment statement
- * Stores the name and value of the variable
- * Also stores the instance of VariableStorage to add the variable to
+ * Stores the name, storage slot and value of the variable
  */
 class AssignNode implements ProgNode {
-    String name;
-    IntNode value;
+    final String name;
+    final int slot;
+    final IntNode value;
 
-    AssignNode(String name, IntNode value) {
+    AssignNode(String name, int slot, IntNode value) {
         this.name = name;
+        this.slot = slot;
         this.value = value;
     }
 
     @Override
     public void execute(Robot robot, VariableStorage vars) {
-        vars.setVar(name, value.evaluate(robot, vars));
+        vars.setVar(slot, value.evaluate(robot, vars));
     }
 
     public String toString() {
-        return name + " = " + value + ";";
+        return ProgramPrinter.statementToString(this);
     }
 }
 
 /**
  * Stores variables allowing access from other classes
  * without using static as that can cause issues with multiple robots
+ * Variables are indexed by the slot the parser gave them, and start at 0
  */
 class VariableStorage {
-    public Map<String, Integer> variables;
+    public int[] variables;
 
-    VariableStorage() {
-        variables = new HashMap<>();
+    VariableStorage(int numVars) {
+        variables = new int[numVars];
     }
 
-    public int getVar(String name) {
-        return variables.computeIfAbsent(name, k->0);
+    public int getVar(int slot) {
+        return variables[slot];
     }
 
-    public void setVar(String name, int value) {
-        variables.put(name, value);
+    public void setVar(int slot, int value) {
+        variables[slot] = value;
     }
 }
\ No newline at end of file
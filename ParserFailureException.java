@@ -1,6 +1,14 @@
 @SuppressWarnings("serial")
 public class ParserFailureException extends RuntimeException {
+	/** Where in the program text the parser failed, or -1 at the end of the text */
+	public final int offset;
+
 	public ParserFailureException(String msg) {
+		this(msg, -1);
+	}
+
+	public ParserFailureException(String msg, int offset) {
 		super(msg);
+		this.offset = offset;
 	}
 }
@@ -0,0 +1,73 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed programs, by file. Loading a file again only re-parses it if its contents
+ * have changed (by SHA-256 of the bytes), so resetting the game or playing a bot in
+ * every match of a tournament parses it once. The cached programs are shared, which
+ * is safe because program nodes never change and keep no state between runs.
+ * When a file has been edited, only the parts of it that changed are parsed again
+ * (see IncrementalParser).
+ */
+class ProgramCache {
+
+    /**
+     * A parsed program, as written (for printing) and optimized (for running).
+     * Both are null if the file has no statements.
+     */
+    static class Entry {
+        final ProgramNode program;
+        final ProgramNode optimized;
+        private final byte[] hash;
+
+        Entry(ProgramNode program, byte[] hash) {
+            this.program = program;
+            this.optimized = (program == null) ? null : ProgramOptimizer.optimize(program);
+            this.hash = hash;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final Map<String, IncrementalParser> parsers = new ConcurrentHashMap<>();
+
+    /**
+     * Reads and parses the file, unless the same contents were parsed before.
+     * Parser errors are not cached, so a broken file is re-parsed (and reported) each time.
+     */
+    static Entry load(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        byte[] source = Files.readAllBytes(file.toPath());
+        byte[] hash = sha256(source);
+        Entry entry = entries.get(key);
+        if (entry != null && Arrays.equals(entry.hash, hash)) {
+            return entry;
+        }
+        IncrementalParser parser = parsers.computeIfAbsent(key, k -> new IncrementalParser());
+        ProgramNode program;
+        synchronized (parser) {
+            program = parser.parse(new String(source));
+        }
+        entry = new Entry(program, hash);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    static void clear() {
+        entries.clear();
+        parsers.clear();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 missing", e); // this should never run
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.util.*;
+
+/**
+ * Compiles a parsed program into a flat int array of instructions
+ * for a small stack machine (see CompiledProgram).
+ * Every instruction is an opcode followed by at most one operand.
+ * Conditions leave 1 (true) or 0 (false) on the stack.
+ */
+class ProgramCompiler {
+
+    // Opcodes
+    static final int
+        HALT = 0, PUSH = 1, LOAD = 2, STORE = 3,
+        ADD = 4, SUB = 5, MUL = 6, DIV = 7,
+        LT = 8, GT = 9, EQ = 10, NOT = 11,
+        DUP = 12, POP = 13,
+        JUMP = 14, JUMP_IF_FALSE = 15, JUMP_IF_TRUE = 16,
+        SENSOR = 17, SENSOR_ARG = 18,
+        ACTION = 19, ACTION_REPEAT = 20,
+        LOOP = 21;  // a JUMP back to the start of a loop, which stops if the robot has been cancelled
+
+    // Operands of SENSOR / SENSOR_ARG
+    static final int
+        FUEL_LEFT = 0, OPP_LR = 1, OPP_FB = 2, NUM_BARRELS = 3,
+        BARREL_LR = 4, BARREL_FB = 5, WALL_DIST = 6;
+
+    // Operands of ACTION / ACTION_REPEAT
+    static final int
+        MOVE = 0, TURN_L = 1, TURN_R = 2, TURN_AROUND = 3,
+        SHIELD_ON = 4, SHIELD_OFF = 5, TAKE_FUEL = 6, WAIT = 7;
+
+    private int[] code = new int[64];
+    private int size = 0;
+    private int depth = 0, maxDepth = 0;
+
+    /**
+     * Compiles the whole program, ending with a HALT
+     */
+    static CompiledProgram compile(ProgramNode program) {
+        ProgramCompiler compiler = new ProgramCompiler();
+        for (ProgNode statement : program.statements) {
+            compiler.compileStatement(statement);
+        }
+        compiler.emit(HALT, 0);
+        return new CompiledProgram(Arrays.copyOf(compiler.code, compiler.size),
+                                   program.numVars, compiler.maxDepth);
+    }
+
+    void compileStatement(ProgNode node) {
+        if (node instanceof ActionNode action) {
+            int op = actionCode(action.actionType);
+            if (action.amount != null) {
+                compileExpression(action.amount);
+                emit(ACTION_REPEAT, op, -1);
+            } else {
+                emit(ACTION, op, 0);
+            }
+        } else if (node instanceof LoopNode loop) {
+            int start = size;
+            compileStatement(loop.block);
+            emit(LOOP, start, 0);
+        } else if (node instanceof BlockNode block) {
+            for (ProgNode statement : block.statements) {
+                compileStatement(statement);
+            }
+        } else if (node instanceof IfNode ifNode) {
+            List<Integer> toEnd = new ArrayList<>();
+            for (ConditionBlock pair : ifNode.conditionPairs) {
+                compileCondition(pair.cond);
+                int toNext = emitJump(JUMP_IF_FALSE);
+                compileStatement(pair.block);
+                toEnd.add(emitJump(JUMP));
+                patch(toNext);
+            }
+            if (ifNode.elseBlock != null) {
+                compileStatement(ifNode.elseBlock);
+            }
+            for (int jump : toEnd) {
+                patch(jump);
+            }
+        } else if (node instanceof WhileNode whileNode) {
+            int start = size;
+            compileCondition(whileNode.cond);
+            int toEnd = emitJump(JUMP_IF_FALSE);
+            compileStatement(whileNode.block);
+            emit(LOOP, start, 0);
+            patch(toEnd);
+        } else if (node instanceof AssignNode assign) {
+            compileExpression(assign.value);
+            emit(STORE, assign.slot, -1);
+        } else {
+            throw new IllegalStateException("Cannot compile " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    void compileCondition(BooleanNode node) {
+        if (node instanceof AndNode and) {
+            compileCondition(and.cond1);
+            emit(DUP, 1);
+            int toEnd = emitJump(JUMP_IF_FALSE);
+            emit(POP, -1);
+            compileCondition(and.cond2);
+            patch(toEnd);
+        } else if (node instanceof OrNode or) {
+            compileCondition(or.cond1);
+            emit(DUP, 1);
+            int toEnd = emitJump(JUMP_IF_TRUE);
+            emit(POP, -1);
+            compileCondition(or.cond2);
+            patch(toEnd);
+        } else if (node instanceof NotNode not) {
+            compileCondition(not.cond);
+            emit(NOT, 0);
+        } else if (node instanceof BooleanValueNode value) {
+            emit(PUSH, value.value ? 1 : 0, 1);
+        } else if (node instanceof RelopNode relop) {
+            compileExpression(relop.expr1);
+            compileExpression(relop.expr2);
+            emit(switch (relop.relop) {
+                case "lt" -> LT;
+                case "gt" -> GT;
+                case "eq" -> EQ;
+                default -> throw new IllegalStateException("Invalid relative operator"); // this should never run
+            }, -1);
+        } else {
+            throw new IllegalStateException("Cannot compile " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    void compileExpression(IntNode node) {
+        if (node instanceof NumberNode number) {
+            emit(PUSH, number.num, 1);
+        } else if (node instanceof VariableNode variable) {
+            emit(LOAD, variable.slot, 1);
+        } else if (node instanceof MathNode math) {
+            compileExpression(math.expr1);
+            compileExpression(math.expr2);
+            emit(switch (math.operation) {
+                case "add" -> ADD;
+                case "sub" -> SUB;
+                case "mul" -> MUL;
+                case "div" -> DIV;
+                default -> throw new IllegalStateException("Invalid operation"); // this should never run
+            }, -1);
+        } else if (node instanceof SensorNode sensor) {
+            int op = sensorCode(sensor.sensor);
+            if (sensor.amount != null) {
+                compileExpression(sensor.amount);
+                emit(SENSOR_ARG, op, 0);
+            } else {
+                emit(SENSOR, op, 1);
+            }
+        } else {
+            throw new IllegalStateException("Cannot compile " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    static int actionCode(String action) {
+        return switch (action) {
+            case "move" -> MOVE;
+            case "turnL" -> TURN_L;
+            case "turnR" -> TURN_R;
+            case "turnAround" -> TURN_AROUND;
+            case "shieldOn" -> SHIELD_ON;
+            case "shieldOff" -> SHIELD_OFF;
+            case "takeFuel" -> TAKE_FUEL;
+            case "wait" -> WAIT;
+            default -> throw new IllegalStateException("Invalid action"); // this should never run
+        };
+    }
+
+    static int sensorCode(String sensor) {
+        return switch (sensor) {
+            case "fuelLeft" -> FUEL_LEFT;
+            case "oppLR" -> OPP_LR;
+            case "oppFB" -> OPP_FB;
+            case "numBarrels" -> NUM_BARRELS;
+            case "barrelLR" -> BARREL_LR;
+            case "barrelFB" -> BARREL_FB;
+            case "wallDist" -> WALL_DIST;
+            default -> throw new IllegalStateException("Invalid sensor"); // this should never run
+        };
+    }
+
+    // Emitting instructions, keeping track of how deep the stack can get
+
+    private void emit(int op, int stackChange) {
+        ensureCapacity(1);
+        code[size++] = op;
+        adjustDepth(stackChange);
+    }
+
+    private void emit(int op, int operand, int stackChange) {
+        ensureCapacity(2);
+        code[size++] = op;
+        code[size++] = operand;
+        adjustDepth(stackChange);
+    }
+
+    /**
+     * Emits a jump with a placeholder target and returns where the target goes
+     */
+    private int emitJump(int op) {
+        emit(op, -1, (op == JUMP) ? 0 : -1);
+        return size - 1;
+    }
+
+    /**
+     * Points a jump emitted by emitJump at the current end of the code
+     */
+    private void patch(int operandIndex) {
+        code[operandIndex] = size;
+    }
+
+    private void adjustDepth(int stackChange) {
+        depth += stackChange;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+    }
+}
+
+/**
+ * A program compiled by ProgramCompiler, with the interpreter loop that runs it.
+ * Has no state of its own between runs, so can be shared between robots.
+ */
+class CompiledProgram {
+    final int[] code;
+    final int numVars;
+    final int maxStack;
+
+    CompiledProgram(int[] code, int numVars, int maxStack) {
+        this.code = code;
+        this.numVars = numVars;
+        this.maxStack = maxStack;
+    }
+
+    public void execute(Robot robot) {
+        final int[] code = this.code;
+        final int[] vars = new int[numVars];
+        final int[] stack = new int[maxStack + 1];
+        int sp = 0;  // next free stack slot
+        int pc = 0;
+        while (true) {
+            switch (code[pc++]) {
+                case ProgramCompiler.HALT -> { return; }
+                case ProgramCompiler.PUSH -> stack[sp++] = code[pc++];
+                case ProgramCompiler.LOAD -> stack[sp++] = vars[code[pc++]];
+                case ProgramCompiler.STORE -> vars[code[pc++]] = stack[--sp];
+                case ProgramCompiler.ADD -> { sp--; stack[sp - 1] = stack[sp - 1] + stack[sp]; }
+                case ProgramCompiler.SUB -> { sp--; stack[sp - 1] = stack[sp - 1] - stack[sp]; }
+                case ProgramCompiler.MUL -> { sp--; stack[sp - 1] = stack[sp - 1] * stack[sp]; }
+                case ProgramCompiler.DIV -> { sp--; stack[sp - 1] = stack[sp - 1] / stack[sp]; }
+                case ProgramCompiler.LT -> { sp--; stack[sp - 1] = (stack[sp - 1] < stack[sp]) ? 1 : 0; }
+                case ProgramCompiler.GT -> { sp--; stack[sp - 1] = (stack[sp - 1] > stack[sp]) ? 1 : 0; }
+                case ProgramCompiler.EQ -> { sp--; stack[sp - 1] = (stack[sp - 1] == stack[sp]) ? 1 : 0; }
+                case ProgramCompiler.NOT -> stack[sp - 1] = 1 - stack[sp - 1];
+                case ProgramCompiler.DUP -> { stack[sp] = stack[sp - 1]; sp++; }
+                case ProgramCompiler.POP -> sp--;
+                case ProgramCompiler.JUMP -> pc = code[pc];
+                case ProgramCompiler.JUMP_IF_FALSE -> pc = (stack[--sp] == 0) ? code[pc] : pc + 1;
+                case ProgramCompiler.JUMP_IF_TRUE -> pc = (stack[--sp] != 0) ? code[pc] : pc + 1;
+                case ProgramCompiler.LOOP -> {
+                    robot.checkCancelled();
+                    pc = code[pc];
+                }
+                case ProgramCompiler.SENSOR -> stack[sp++] = sense(robot, code[pc++]);
+                case ProgramCompiler.SENSOR_ARG -> stack[sp - 1] = senseNth(robot, code[pc++], stack[sp - 1]);
+                case ProgramCompiler.ACTION -> act(robot, code[pc++]);
+                case ProgramCompiler.ACTION_REPEAT -> {
+                    int action = code[pc++];
+                    int num = stack[--sp];
+                    for (int i = 0; i < num; i++) {
+                        act(robot, action);
+                    }
+                }
+                default -> throw new IllegalStateException("Invalid opcode"); // this should never run
+            }
+        }
+    }
+
+    private static int sense(Robot robot, int sensor) {
+        return switch (sensor) {
+            case ProgramCompiler.FUEL_LEFT -> robot.getFuel();
+            case ProgramCompiler.OPP_LR -> robot.getOpponentLR();
+            case ProgramCompiler.OPP_FB -> robot.getOpponentFB();
+            case ProgramCompiler.NUM_BARRELS -> robot.numBarrels();
+            case ProgramCompiler.BARREL_LR -> robot.getClosestBarrelLR();
+            case ProgramCompiler.BARREL_FB -> robot.getClosestBarrelFB();
+            case ProgramCompiler.WALL_DIST -> robot.getDistanceToWall();
+            default -> throw new IllegalStateException("Invalid sensor"); // this should never run
+        };
+    }
+
+    private static int senseNth(Robot robot, int sensor, int n) {
+        return switch (sensor) {
+            case ProgramCompiler.BARREL_LR -> robot.getBarrelLR(n);
+            case ProgramCompiler.BARREL_FB -> robot.getBarrelFB(n);
+            default -> throw new IllegalStateException("Invalid sensor"); // this should never run
+        };
+    }
+
+    private static void act(Robot robot, int action) {
+        switch (action) {
+            case ProgramCompiler.MOVE -> robot.move();
+            case ProgramCompiler.TURN_L -> robot.turnLeft();
+            case ProgramCompiler.TURN_R -> robot.turnRight();
+            case ProgramCompiler.TURN_AROUND -> robot.turnAround();
+            case ProgramCompiler.SHIELD_ON -> robot.setShield(true);
+            case ProgramCompiler.SHIELD_OFF -> robot.setShield(false);
+            case ProgramCompiler.TAKE_FUEL -> robot.takeFuel();
+            case ProgramCompiler.WAIT -> robot.idleWait();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.*;
+
+/**
+ * Simplifies a parsed program before it is run, without changing what it does:
+ * folds arithmetic and comparisons on constants, removes double negation,
+ * short-circuits and/or with a constant side, and drops if/elif branches
+ * and while loops whose conditions are constant.
+ *
+ * Sensors are never removed or reordered, since reading a sensor is visible to the
+ * robot (and to TesterRobot). So a constant side of an and/or is only dropped when
+ * the other side would have been evaluated anyway, or has no sensors in it.
+ * Division by a constant zero is left for the program to fail on at run time.
+ *
+ * The original tree is not changed; parts that don't simplify are shared with it.
+ */
+class ProgramOptimizer {
+
+    static ProgramNode optimize(ProgramNode program) {
+        return new ProgramNode(optimizeStatements(program.statements), program.numVars);
+    }
+
+    static List<ProgNode> optimizeStatements(List<ProgNode> statements) {
+        List<ProgNode> result = new ArrayList<>();
+        for (ProgNode statement : statements) {
+            ProgNode optimized = optimizeStatement(statement);
+            if (optimized != null) {
+                result.add(optimized);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The simplified statement, or null if it would never do anything
+     */
+    static ProgNode optimizeStatement(ProgNode node) {
+        if (node instanceof ActionNode action) {
+            return (action.amount == null) ? action : new ActionNode(action.actionType, optimizeExpression(action.amount));
+        } else if (node instanceof LoopNode loop) {
+            return new LoopNode(optimizeBlock(loop.block));
+        } else if (node instanceof BlockNode block) {
+            return optimizeBlock(block);
+        } else if (node instanceof IfNode ifNode) {
+            return optimizeIf(ifNode);
+        } else if (node instanceof WhileNode whileNode) {
+            BooleanNode cond = optimizeCondition(whileNode.cond);
+            if (isFalse(cond)) {
+                return null;
+            }
+            return new WhileNode(optimizeBlock(whileNode.block), cond);
+        } else if (node instanceof AssignNode assign) {
+            return new AssignNode(assign.name, assign.slot, optimizeExpression(assign.value));
+        } else {
+            throw new IllegalStateException("Cannot optimize " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    static BlockNode optimizeBlock(BlockNode block) {
+        return new BlockNode(optimizeStatements(block.statements), block.indent);
+    }
+
+    /**
+     * Drops branches whose condition is always false, and stops at the first branch whose
+     * condition is always true (it becomes the else). Conditions before a dropped branch
+     * are still tested in order, so no sensors are skipped.
+     */
+    static ProgNode optimizeIf(IfNode ifNode) {
+        List<ConditionBlock> pairs = new ArrayList<>();
+        BlockNode elseBlock = (ifNode.elseBlock == null) ? null : optimizeBlock(ifNode.elseBlock);
+        for (ConditionBlock pair : ifNode.conditionPairs) {
+            BooleanNode cond = optimizeCondition(pair.cond);
+            if (isFalse(cond)) {
+                continue;
+            }
+            if (isTrue(cond)) {
+                elseBlock = optimizeBlock(pair.block);
+                break;
+            }
+            pairs.add(new ConditionBlock(cond, optimizeBlock(pair.block)));
+        }
+        if (pairs.isEmpty()) {
+            return elseBlock;  // the block that always runs, or null if none does
+        }
+        return (elseBlock == null) ? new IfNode(pairs) : new IfNode(pairs, elseBlock);
+    }
+
+    static BooleanNode optimizeCondition(BooleanNode node) {
+        if (node instanceof AndNode and) {
+            BooleanNode cond1 = optimizeCondition(and.cond1);
+            BooleanNode cond2 = optimizeCondition(and.cond2);
+            if (isFalse(cond1)) {
+                return cond1;  // cond2 was never evaluated
+            }
+            if (isTrue(cond1) || isTrue(cond2)) {
+                return isTrue(cond1) ? cond2 : cond1;
+            }
+            if (isFalse(cond2) && isPureCondition(cond1)) {
+                return cond2;
+            }
+            return new AndNode(cond1, cond2);
+        } else if (node instanceof OrNode or) {
+            BooleanNode cond1 = optimizeCondition(or.cond1);
+            BooleanNode cond2 = optimizeCondition(or.cond2);
+            if (isTrue(cond1)) {
+                return cond1;  // cond2 was never evaluated
+            }
+            if (isFalse(cond1) || isFalse(cond2)) {
+                return isFalse(cond1) ? cond2 : cond1;
+            }
+            if (isTrue(cond2) && isPureCondition(cond1)) {
+                return cond2;
+            }
+            return new OrNode(cond1, cond2);
+        } else if (node instanceof NotNode not) {
+            BooleanNode cond = optimizeCondition(not.cond);
+            if (cond instanceof NotNode inner) {
+                return inner.cond;
+            }
+            if (cond instanceof BooleanValueNode value) {
+                return new BooleanValueNode(!value.value);
+            }
+            return new NotNode(cond);
+        } else if (node instanceof RelopNode relop) {
+            IntNode expr1 = optimizeExpression(relop.expr1);
+            IntNode expr2 = optimizeExpression(relop.expr2);
+            if (expr1 instanceof NumberNode num1 && expr2 instanceof NumberNode num2) {
+                return new BooleanValueNode(switch (relop.relop) {
+                    case "lt" -> num1.num < num2.num;
+                    case "gt" -> num1.num > num2.num;
+                    case "eq" -> num1.num == num2.num;
+                    default -> throw new IllegalStateException("Invalid relative operator"); // this should never run
+                });
+            }
+            return new RelopNode(relop.relop, expr1, expr2);
+        } else if (node instanceof BooleanValueNode) {
+            return node;
+        } else {
+            throw new IllegalStateException("Cannot optimize " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    static IntNode optimizeExpression(IntNode node) {
+        if (node instanceof NumberNode || node instanceof VariableNode) {
+            return node;
+        } else if (node instanceof MathNode math) {
+            IntNode expr1 = optimizeExpression(math.expr1);
+            IntNode expr2 = optimizeExpression(math.expr2);
+            if (expr1 instanceof NumberNode num1 && expr2 instanceof NumberNode num2
+                && !(math.operation.equals("div") && num2.num == 0)) {
+                return new NumberNode(switch (math.operation) {
+                    case "add" -> num1.num + num2.num;
+                    case "sub" -> num1.num - num2.num;
+                    case "mul" -> num1.num * num2.num;
+                    case "div" -> num1.num / num2.num;
+                    default -> throw new IllegalStateException("Invalid operation"); // this should never run
+                });
+            }
+            return new MathNode(expr1, expr2, math.operation);
+        } else if (node instanceof SensorNode sensor) {
+            return (sensor.amount == null) ? sensor : new SensorNode(sensor.sensor, optimizeExpression(sensor.amount));
+        } else {
+            throw new IllegalStateException("Cannot optimize " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    static boolean isTrue(BooleanNode node) {
+        return node instanceof BooleanValueNode value && value.value;
+    }
+
+    static boolean isFalse(BooleanNode node) {
+        return node instanceof BooleanValueNode value && !value.value;
+    }
+
+    /**
+     * Whether evaluating the condition reads no sensors
+     */
+    static boolean isPureCondition(BooleanNode node) {
+        if (node instanceof AndNode and) {
+            return isPureCondition(and.cond1) && isPureCondition(and.cond2);
+        } else if (node instanceof OrNode or) {
+            return isPureCondition(or.cond1) && isPureCondition(or.cond2);
+        } else if (node instanceof NotNode not) {
+            return isPureCondition(not.cond);
+        } else if (node instanceof RelopNode relop) {
+            return isPureExpression(relop.expr1) && isPureExpression(relop.expr2);
+        }
+        return true;
+    }
+
+    static boolean isPureExpression(IntNode node) {
+        if (node instanceof MathNode math) {
+            // a division can fail, which is as visible as a sensor
+            return isPureExpression(math.expr1) && isPureExpression(math.expr2) && !math.operation.equals("div");
+        }
+        return !(node instanceof SensorNode);
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Prints programs, in the form the nodes' toString methods give.
+ * The text is built up in one buffer (and, when printing to an Appendable such as a Writer,
+ * passed on in chunks), so printing takes time in proportion to the length of the text,
+ * however big the program is.
+ */
+class ProgramPrinter {
+
+    private static final int CHUNK = 8192;
+
+    private final Appendable out;  // where full chunks go, or null to keep everything in the buffer
+    private final StringBuilder buffer = new StringBuilder();
+
+    private ProgramPrinter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the program to out
+     */
+    static void print(ProgramNode program, Appendable out) throws IOException {
+        ProgramPrinter printer = new ProgramPrinter(out);
+        printer.printProgram(program);
+        out.append(printer.buffer);
+    }
+
+    static String toString(ProgramNode program) {
+        ProgramPrinter printer = new ProgramPrinter(null);
+        try {
+            printer.printProgram(program);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should never run
+        }
+        return printer.buffer.toString();
+    }
+
+    static String statementToString(ProgNode node) {
+        ProgramPrinter printer = new ProgramPrinter(null);
+        try {
+            printer.printStatement(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should never run
+        }
+        return printer.buffer.toString();
+    }
+
+    static String conditionToString(BooleanNode node) {
+        ProgramPrinter printer = new ProgramPrinter(null);
+        try {
+            printer.printCondition(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should never run
+        }
+        return printer.buffer.toString();
+    }
+
+    static String expressionToString(IntNode node) {
+        ProgramPrinter printer = new ProgramPrinter(null);
+        try {
+            printer.printExpression(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should never run
+        }
+        return printer.buffer.toString();
+    }
+
+    private void printProgram(ProgramNode program) throws IOException {
+        for (ProgNode statement : program.statements) {
+            printStatement(statement);
+        }
+        // the program is printed without the last character (the last statement's ';' or '}')
+        buffer.setLength(Math.max(buffer.length() - 1, 0));
+    }
+
+    private void printStatement(ProgNode node) throws IOException {
+        if (node instanceof ActionNode action) {
+            write(action.actionType);
+            write(";");
+        } else if (node instanceof LoopNode loop) {
+            write("loop");
+            printBlock(loop.block);
+        } else if (node instanceof BlockNode block) {
+            printBlock(block);
+        } else if (node instanceof IfNode ifNode) {
+            ConditionBlock firstIf = ifNode.conditionPairs.get(0);
+            write("if(");
+            printCondition(firstIf.cond);
+            write(")");
+            printBlock(firstIf.block);
+            if (ifNode.conditionPairs.size() > 1) {
+                // every branch is printed again as an elif, including the first
+                for (ConditionBlock pair : ifNode.conditionPairs) {
+                    write(" elif(");
+                    printCondition(pair.cond);
+                    write(")");
+                    printBlock(pair.block);
+                }
+            }
+            if (ifNode.elseBlock != null) {
+                write(" else");
+                printBlock(ifNode.elseBlock);
+            }
+        } else if (node instanceof WhileNode whileNode) {
+            write("while(");
+            printCondition(whileNode.cond);
+            write(")");
+            printBlock(whileNode.block);
+        } else if (node instanceof AssignNode assign) {
+            write(assign.name);
+            write(" = ");
+            printExpression(assign.value);
+            write(";");
+        } else {
+            throw new IllegalStateException("Cannot print " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    private void printBlock(BlockNode block) throws IOException {
+        write("{\n");
+        for (ProgNode statement : block.statements) {
+            indent(block.indent);
+            printStatement(statement);
+        }
+        indent(block.indent - 1);
+        write("}");
+    }
+
+    private void printCondition(BooleanNode node) throws IOException {
+        if (node instanceof AndNode and) {
+            printConditionCall("and", and.cond1, and.cond2);
+        } else if (node instanceof OrNode or) {
+            printConditionCall("or", or.cond1, or.cond2);
+        } else if (node instanceof NotNode not) {
+            write("not(");
+            printCondition(not.cond);
+            write(")");
+        } else if (node instanceof BooleanValueNode value) {
+            // the language has no true/false, so print something that parses to the same value
+            write(value.value ? "eq(0, 0)" : "eq(0, 1)");
+        } else if (node instanceof RelopNode relop) {
+            printExpressionCall(relop.relop, relop.expr1, relop.expr2);
+        } else {
+            throw new IllegalStateException("Cannot print " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    private void printExpression(IntNode node) throws IOException {
+        if (node instanceof SensorNode sensor) {
+            write(sensor.sensor);
+        } else if (node instanceof NumberNode number) {
+            write(Integer.toString(number.num));
+        } else if (node instanceof MathNode math) {
+            printExpressionCall(math.operation, math.expr1, math.expr2);
+        } else if (node instanceof VariableNode variable) {
+            write(variable.name);
+        } else {
+            throw new IllegalStateException("Cannot print " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    private void printConditionCall(String name, BooleanNode cond1, BooleanNode cond2) throws IOException {
+        write(name);
+        write("(");
+        printCondition(cond1);
+        write(", ");
+        printCondition(cond2);
+        write(")");
+    }
+
+    private void printExpressionCall(String name, IntNode expr1, IntNode expr2) throws IOException {
+        write(name);
+        write("(");
+        printExpression(expr1);
+        write(", ");
+        printExpression(expr2);
+        write(")");
+    }
+
+    private void indent(int level) throws IOException {
+        for (int i = 0; i < level; i++) {
+            write("    ");
+        }
+    }
+
+    /**
+     * Adds the text to the buffer, and passes a full buffer on to out.
+     * The last character is always kept back, since the end of a program is left off.
+     */
+    private void write(String text) throws IOException {
+        buffer.append(text);
+        if (out != null && buffer.length() > CHUNK) {
+            out.append(buffer, 0, buffer.length() - 1);
+            buffer.delete(0, buffer.length() - 1);
+        }
+    }
+}
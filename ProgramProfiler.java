@@ -0,0 +1,376 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Finds out where a program spends its time: how often each statement, condition and
+ * expression runs, how many sensor readings and actions it leads to, and how long it takes,
+ * reported by source line (or by node).
+ *
+ * instrument() makes a copy of the program with each of its nodes wrapped in one that
+ * keeps count. Times leave out the time the robot spends waiting for its turns, so they
+ * are the time the program itself takes. The wrappers add some time of their own, so
+ * compare times with each other rather than with an unprofiled run.
+ * The counts are not synchronized: an instrumented program must only be run by one robot,
+ * walking the tree (it can't be compiled).
+ *
+ *   java ProgramProfiler [--seed n] [--nodes] program.prog [opponent.prog] [maxTurns] [worldSize]
+ * plays a headless match with the program as the red robot (against the default
+ * program, if no opponent is given) and prints its hottest lines, or every node.
+ */
+public class ProgramProfiler {
+
+    /**
+     * The counts for one node. Sensor readings, actions and time include
+     * everything the node ran; self time leaves out the nodes inside it.
+     */
+    static class Stats {
+        final Object node;  // as parsed, for finding it in the source
+        long count, sensorCalls, actions, nanos, selfNanos;
+
+        Stats(Object node) {
+            this.node = node;
+        }
+    }
+
+    private final SourceMap source;
+    private final Map<Object, Stats> stats = new IdentityHashMap<>();
+    private final List<Stats> allStats = new ArrayList<>();  // in the order of the program
+
+    // running totals for the wrappers to take the differences of
+    private long sensorCalls, actions, childNanos;
+    // what they were when each node that is still running started, innermost last
+    private int depth = 0;
+    private long[] starts = new long[16], blocked = new long[16], sensorsBefore = new long[16],
+        actionsBefore = new long[16], outerChildNanos = new long[16];
+
+    ProgramProfiler(SourceMap source) {
+        this.source = source;
+    }
+
+    /**
+     * A copy of the parsed program that counts as it runs
+     */
+    ProgramNode instrument() {
+        return new ProgramNode(statements(source.program.statements), source.program.numVars);
+    }
+
+    /**
+     * The counts for a node of the parsed program, or null if it was never instrumented
+     */
+    Stats stats(Object node) {
+        return stats.get(node);
+    }
+
+    //----------------------------------------------------------------
+    // Making the instrumented copy
+
+    private List<ProgNode> statements(List<ProgNode> statements) {
+        List<ProgNode> result = new ArrayList<>();
+        for (ProgNode statement : statements) {
+            result.add(new ProfiledStatement(this, statsFor(statement), statement(statement)));
+        }
+        return result;
+    }
+
+    private ProgNode statement(ProgNode node) {
+        if (node instanceof ActionNode action) {
+            return (action.amount == null) ? action : new ActionNode(action.actionType, expression(action.amount));
+        } else if (node instanceof LoopNode loop) {
+            return new LoopNode(block(loop.block));
+        } else if (node instanceof BlockNode block) {
+            return block(block);
+        } else if (node instanceof IfNode ifNode) {
+            List<ConditionBlock> pairs = new ArrayList<>();
+            for (ConditionBlock pair : ifNode.conditionPairs) {
+                pairs.add(new ConditionBlock(condition(pair.cond), block(pair.block)));
+            }
+            return new IfNode(pairs, (ifNode.elseBlock == null) ? null : block(ifNode.elseBlock));
+        } else if (node instanceof WhileNode whileNode) {
+            return new WhileNode(block(whileNode.block), condition(whileNode.cond));
+        } else if (node instanceof AssignNode assign) {
+            return new AssignNode(assign.name, assign.slot, expression(assign.value));
+        } else {
+            throw new IllegalStateException("Cannot profile " + node.getClass().getSimpleName()); // this should never run
+        }
+    }
+
+    private BlockNode block(BlockNode block) {
+        return new BlockNode(statements(block.statements), block.indent);
+    }
+
+    private BooleanNode condition(BooleanNode node) {
+        BooleanNode copy;
+        if (node instanceof AndNode and) {
+            copy = new AndNode(condition(and.cond1), condition(and.cond2));
+        } else if (node instanceof OrNode or) {
+            copy = new OrNode(condition(or.cond1), condition(or.cond2));
+        } else if (node instanceof NotNode not) {
+            copy = new NotNode(condition(not.cond));
+        } else if (node instanceof RelopNode relop) {
+            copy = new RelopNode(relop.relop, expression(relop.expr1), expression(relop.expr2));
+        } else if (node instanceof BooleanValueNode) {
+            copy = node;
+        } else {
+            throw new IllegalStateException("Cannot profile " + node.getClass().getSimpleName()); // this should never run
+        }
+        return new ProfiledCondition(this, statsFor(node), copy);
+    }
+
+    private IntNode expression(IntNode node) {
+        IntNode copy;
+        if (node instanceof NumberNode || node instanceof VariableNode) {
+            copy = node;
+        } else if (node instanceof MathNode math) {
+            copy = new MathNode(expression(math.expr1), expression(math.expr2), math.operation);
+        } else if (node instanceof SensorNode sensor) {
+            copy = (sensor.amount == null) ? sensor : new SensorNode(sensor.sensor, expression(sensor.amount));
+        } else {
+            throw new IllegalStateException("Cannot profile " + node.getClass().getSimpleName()); // this should never run
+        }
+        return new ProfiledExpression(this, statsFor(node), copy, node instanceof SensorNode);
+    }
+
+    private Stats statsFor(Object node) {
+        Stats s = new Stats(node);
+        stats.put(node, s);
+        allStats.add(s);
+        return s;
+    }
+
+    //----------------------------------------------------------------
+    // Counting, called by the wrappers around each node
+
+    /**
+     * Called by the wrappers just before a node runs
+     */
+    void enter(Robot robot) {
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+            blocked = Arrays.copyOf(blocked, depth * 2);
+            sensorsBefore = Arrays.copyOf(sensorsBefore, depth * 2);
+            actionsBefore = Arrays.copyOf(actionsBefore, depth * 2);
+            outerChildNanos = Arrays.copyOf(outerChildNanos, depth * 2);
+        }
+        blocked[depth] = robot.getBlockedNanos();
+        sensorsBefore[depth] = sensorCalls;
+        actionsBefore[depth] = actions;
+        outerChildNanos[depth] = childNanos;
+        childNanos = 0;
+        starts[depth++] = System.nanoTime();
+    }
+
+    /**
+     * Called by the wrappers when a node has finished (or failed), to add what it did to its counts
+     */
+    void exit(Stats stats, Robot robot, boolean isSensor, boolean isAction) {
+        long end = System.nanoTime();
+        depth--;
+        if (isSensor) {
+            sensorCalls++;
+        }
+        if (isAction) {
+            actions++;
+        }
+        long elapsed = end - starts[depth] - (robot.getBlockedNanos() - blocked[depth]);
+        stats.count++;
+        stats.sensorCalls += sensorCalls - sensorsBefore[depth];
+        stats.actions += actions - actionsBefore[depth];
+        stats.nanos += elapsed;
+        stats.selfNanos += elapsed - childNanos;
+        childNanos = outerChildNanos[depth] + elapsed;
+    }
+
+    //----------------------------------------------------------------
+    // Reports
+
+    /**
+     * Prints the lines that took the most time (at most maxLines of them), with how often
+     * they ran and the sensor readings and actions on them
+     */
+    void report(PrintStream out, int maxLines) {
+        int lines = source.numLines();
+        long[] runs = new long[lines + 1], sensors = new long[lines + 1], acts = new long[lines + 1], nanos = new long[lines + 1];
+        long totalNanos = 0;
+        for (Stats s : allStats) {
+            int line = source.line(s.node);
+            runs[line] = Math.max(runs[line], s.count);
+            if (s.node instanceof SensorNode) {
+                sensors[line] += s.count;
+            }
+            if (s.node instanceof ActionNode) {
+                acts[line] += s.count;
+            }
+            nanos[line] += s.selfNanos;
+            totalNanos += s.selfNanos;
+        }
+        List<Integer> hot = new ArrayList<>();
+        for (int line = 1; line <= lines; line++) {
+            if (runs[line] > 0) {
+                hot.add(line);
+            }
+        }
+        hot.sort(Comparator.comparingLong((Integer line) -> nanos[line]).reversed());
+        out.printf("%5s %10s %10s %10s %10s %7s  %s%n", "Line", "Runs", "Sensors", "Actions", "Time ms", "Time %", "Source");
+        for (int line : hot.subList(0, Math.min(maxLines, hot.size()))) {
+            out.printf("%5d %10d %10d %10d %10.3f %6.1f%%  %s%n", line, runs[line], sensors[line], acts[line],
+                       nanos[line] / 1e6, (totalNanos == 0) ? 0.0 : 100.0 * nanos[line] / totalNanos,
+                       source.lineText(line).strip());
+        }
+    }
+
+    /**
+     * Prints the counts for every node, in the order of the program.
+     * Times include the nodes inside.
+     */
+    void reportNodes(PrintStream out) {
+        out.printf("%-9s %-18s %10s %10s %10s %10s%n", "Where", "Node", "Runs", "Sensors", "Actions", "Time ms");
+        for (Stats s : allStats) {
+            out.printf("%-9s %-18s %10d %10d %10d %10.3f%n", source.line(s.node) + ":" + source.column(s.node),
+                       s.node.getClass().getSimpleName(), s.count, s.sensorCalls, s.actions, s.nanos / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = new SplittableRandom().nextLong();
+        boolean nodes = false;
+        while (args.length > 0 && args[0].startsWith("--")) {
+            switch (args[0]) {
+            case "--seed" -> {
+                seed = Long.parseLong(args[1]);
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            case "--nodes" -> nodes = true;
+            default -> {
+                System.out.println("Unknown option " + args[0]);
+                return;
+            }
+            }
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length < 1) {
+            System.out.println("Usage: java ProgramProfiler [--seed n] [--nodes] program.prog [opponent.prog] [maxTurns] [worldSize]");
+            return;
+        }
+        SourceMap source;
+        try {
+            source = SourceMap.parse(Files.readString(new File(args[0]).toPath()));
+        } catch (ParserFailureException e) {
+            System.out.println("Parser error:");
+            System.out.println(e.getMessage());
+            return;
+        }
+        if (source.program == null) {
+            return;
+        }
+        int maxTurns = (args.length > 2) ? Integer.parseInt(args[2]) : Simulator.DEFAULT_MAX_TURNS;
+        int size = (args.length > 3) ? Integer.parseInt(args[3]) : World.SIZE;
+
+        World world = new World(size, 2, seed);
+        ProgramProfiler profiler = new ProgramProfiler(source);
+        world.getRobot(1).setProgram(profiler.instrument());
+        if (args.length > 1 && !args[1].equals("-")) {
+            world.loadRobotProgram(2, new File(args[1]));
+        }
+        MatchResult result = new Simulator(world, maxTurns).run();
+        System.out.println(result);
+        System.out.println("Seed " + seed);
+        if (nodes) {
+            profiler.reportNodes(System.out);
+        } else {
+            profiler.report(System.out, 20);
+        }
+        EventLog.flush();
+    }
+}
+
+/**
+ * A statement of an instrumented program (see ProgramProfiler)
+ */
+class ProfiledStatement implements ProgNode {
+    final ProgramProfiler profiler;
+    final ProgramProfiler.Stats stats;
+    final ProgNode node;
+
+    ProfiledStatement(ProgramProfiler profiler, ProgramProfiler.Stats stats, ProgNode node) {
+        this.profiler = profiler;
+        this.stats = stats;
+        this.node = node;
+    }
+
+    @Override
+    public void execute(Robot robot, VariableStorage vars) {
+        profiler.enter(robot);
+        try {
+            node.execute(robot, vars);
+        } finally {
+            profiler.exit(stats, robot, false, node instanceof ActionNode);
+        }
+    }
+
+    public String toString() {
+        return node.toString();
+    }
+}
+
+/**
+ * A condition of an instrumented program (see ProgramProfiler)
+ */
+class ProfiledCondition implements BooleanNode {
+    final ProgramProfiler profiler;
+    final ProgramProfiler.Stats stats;
+    final BooleanNode node;
+
+    ProfiledCondition(ProgramProfiler profiler, ProgramProfiler.Stats stats, BooleanNode node) {
+        this.profiler = profiler;
+        this.stats = stats;
+        this.node = node;
+    }
+
+    @Override
+    public boolean evaluate(Robot robot, VariableStorage vars) {
+        profiler.enter(robot);
+        try {
+            return node.evaluate(robot, vars);
+        } finally {
+            profiler.exit(stats, robot, false, false);
+        }
+    }
+
+    public String toString() {
+        return node.toString();
+    }
+}
+
+/**
+ * An expression of an instrumented program (see ProgramProfiler)
+ */
+class ProfiledExpression implements IntNode {
+    final ProgramProfiler profiler;
+    final ProgramProfiler.Stats stats;
+    final IntNode node;
+    final boolean isSensor;
+
+    ProfiledExpression(ProgramProfiler profiler, ProgramProfiler.Stats stats, IntNode node, boolean isSensor) {
+        this.profiler = profiler;
+        this.stats = stats;
+        this.node = node;
+        this.isSensor = isSensor;
+    }
+
+    @Override
+    public int evaluate(Robot robot, VariableStorage vars) {
+        profiler.enter(robot);
+        try {
+            return node.evaluate(robot, vars);
+        } finally {
+            profiler.exit(stats, robot, isSensor, false);
+        }
+    }
+
+    public String toString() {
+        return node.toString();
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks robot programs for errors without running them.
+ * Every error in a program is found in one pass (the parser carries on after each one,
+ * see Parser.parse(String, List)), and many programs are checked at once, spread across all cores.
+ *
+ *   java ProgramValidator [directory or program]...
+ * checks the programs given, and every .prog file in the directories given (by default
+ * the programs directory), and prints each error as file:line:column: message.
+ * Exits with status 1 if any program has an error.
+ */
+public class ProgramValidator {
+
+    /**
+     * Checks every file, using the given number of threads.
+     * Returns the errors in each file (empty for a valid program), in the same order as the files.
+     */
+    public static List<List<Diagnostic>> validate(List<File> files, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Callable<List<Diagnostic>>> checks = new ArrayList<>();
+        for (File file : files) {
+            checks.add(() -> validate(file));
+        }
+        List<List<Diagnostic>> results = new ArrayList<>();
+        try {
+            for (Future<List<Diagnostic>> check : pool.invokeAll(checks)) {
+                results.add(check.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Validation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Checks one file. Returns its errors (empty for a valid program).
+     */
+    public static List<Diagnostic> validate(File file) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        try {
+            new Parser().parse(Files.readString(file.toPath()), diagnostics);
+        } catch (IOException e) {
+            diagnostics.add(new Diagnostic(1, 1, "Can't read program: " + e.getMessage()));
+        }
+        return diagnostics;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<File> files = new ArrayList<>();
+        for (String arg : (args.length > 0) ? args : new String[] { RoboGame.CODE_DIRECTORY }) {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] programs = file.listFiles((d, name) -> name.endsWith(".prog"));
+                Arrays.sort(programs);
+                files.addAll(Arrays.asList(programs));
+            } else if (file.exists()) {
+                files.add(file);
+            } else {
+                System.out.println("Can't find file '" + file + "'");
+            }
+        }
+
+        long start = System.nanoTime();
+        List<List<Diagnostic>> results = validate(files, Runtime.getRuntime().availableProcessors());
+        long elapsed = System.nanoTime() - start;
+
+        int invalid = 0, errors = 0;
+        for (int i = 0; i < files.size(); i++) {
+            List<Diagnostic> diagnostics = results.get(i);
+            for (Diagnostic diagnostic : diagnostics) {
+                System.out.println(files.get(i) + ":" + diagnostic);
+            }
+            if (!diagnostics.isEmpty()) {
+                invalid++;
+                errors += diagnostics.size();
+            }
+        }
+        System.out.printf("%d of %d programs have errors (%d errors), checked in %.1f ms%n",
+                          invalid, files.size(), errors, elapsed / 1e6);
+        System.exit((invalid > 0) ? 1 : 0);
+    }
+}
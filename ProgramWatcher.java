@@ -0,0 +1,71 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory of robot programs, and tells the listener (on the watcher's own
+ * thread) about each file that is created or changed.
+ * Editors often save a file in several writes, so changes are collected until the
+ * directory has been quiet for a moment, and then each file is reported once.
+ */
+class ProgramWatcher implements Closeable {
+
+    private static final long SETTLE_MILLIS = 20;
+
+    private final Path directory;
+    private final WatchService service;
+    private final Consumer<File> listener;
+
+    ProgramWatcher(String directory, Consumer<File> listener) throws IOException {
+        this.directory = Paths.get(directory);
+        this.service = this.directory.getFileSystem().newWatchService();
+        this.directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.listener = listener;
+        Thread thread = new Thread(this::watch, "program-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+                            changed.add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        return;  // the directory has gone
+                    }
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                for (Path path : changed) {
+                    if (Files.isRegularFile(path)) {
+                        listener.accept(path.toFile());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped watching
+        }
+    }
+
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests the parser's recovery mode (parse with a list of diagnostics):
+ * Each test case is a program and the errors it should report, as "line:column: message".
+ * The bad programs in the programs directory each have one error (or none, for the ones that only fail when run);
+ * the other cases have several, to check that parsing carries on after each.
+ * It then checks that every program that parses gives no diagnostics and the same tree as the ordinary parse.
+ * Each check prints "OK" or "BAD".
+ */
+public class RecoveryTester {
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("Testing parse error recovery");
+        System.out.println("============================");
+        System.out.println("\nBad programs:");
+        for (String[] test : badFiles) {
+            String text = Files.readString(new File(RoboGame.CODE_DIRECTORY, test[0]).toPath());
+            check(test[0], text, test[1]);
+        }
+
+        System.out.println("\nSeveral errors:");
+        for (String[] test : badPrograms) {
+            check(test[0].replace("\n", " "), test[0], test[1]);
+        }
+
+        System.out.println("\nGood programs:");
+        File[] files = new File(RoboGame.CODE_DIRECTORY).listFiles((dir, name) -> name.endsWith(".prog"));
+        Arrays.sort(files);
+        for (File file : files) {
+            String text = Files.readString(file.toPath());
+            String expected;
+            try {
+                expected = String.valueOf(new Parser().parse(text));
+            } catch (ParserFailureException e) {
+                continue;
+            }
+            List<Diagnostic> diagnostics = new ArrayList<>();
+            String recovered = String.valueOf(new Parser().parse(text, diagnostics));
+            if (!diagnostics.isEmpty()) {
+                System.out.println("BAD, " + file.getName() + " reported " + diagnostics);
+            } else if (!recovered.equals(expected)) {
+                System.out.println("BAD, " + file.getName() + " gave a different tree:\n  " + recovered.replace("\n", " "));
+            } else {
+                System.out.println("OK, " + file.getName());
+            }
+        }
+        System.out.println("Done");
+    }
+
+    private static void check(String name, String text, String expected) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        try {
+            new Parser().parse(text, diagnostics);
+        } catch (RuntimeException e) {
+            System.out.println("BAD, " + name + " broke the parser: " + e);
+            return;
+        }
+        String actual = diagnostics.toString();
+        if (actual.equals(expected)) {
+            System.out.println("OK, " + name + " " + actual);
+        } else {
+            System.out.println("BAD, " + name + "\n  got:      " + actual + "\n  expected: " + expected);
+        }
+    }
+
+    // file, diagnostics
+    private static final String[][] badFiles = new String[][] {
+        {"s0_bad1.prog", "[4:1: Missing semicolon]"},
+        {"s0_bad2.prog", "[4:1: Invalid action]"},
+        {"s0_bad3.prog", "[1:6: Empty loop]"},
+        {"s0_bad4.prog", "[3:8: Missing '}']"},
+        {"s1_bad1.prog", "[1:6: Missing '(']"},
+        {"s1_bad2.prog", "[1:4: Invalid operator]"},
+        {"s1_bad3.prog", "[]"},
+        {"s1_bad4.prog", "[]"},
+        {"s1_bad5.prog", "[1:20: Invalid operation]"},
+        {"s2_bad1.prog", "[1:6: Invalid operation]"},
+        {"s2_bad2.prog", "[1:1: Invalid action]"},
+        {"s2_bad3.prog", "[1:1: Invalid action]"},
+        {"s2_bad4.prog", "[1:6: Missing semicolon]"},
+        {"s2_bad5.prog", "[1:1: Invalid action]"},
+        {"s2_bad6.prog", "[1:4: Invalid operator]"},
+        {"s2_bad7.prog", "[3:7: Missing '{']"},
+    };
+
+    // program, diagnostics
+    private static final String[][] badPrograms = new String[][] {
+        {"move;\nturnR\nmove;\nmve;\nturnL;", "[3:1: Missing semicolon, 4:1: Invalid action]"},
+        {"loop {\n  move;\n  wait(;\n}\nturnL;\nif (eq(1)) { move; }\nwait;", "[3:8: Invalid operation, 6:9: Missing ',']"},
+        {"while (gt(fuelLeft, 0)) {\n  turnL\n  move;\n}", "[3:3: Missing semicolon]"},
+        {"$x = ;\nmove($x);", "[1:6: Invalid operation]"},
+        {"move; } turnL;", "[1:7: Invalid action]"},
+        {"move;\nloop {", "[2:7: Missing '}']"},
+        {"", "[]"},
+    };
+}
@@ -0,0 +1,154 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests recording and replaying matches, without running any robots:
+ * Records a made-up match with MatchRecorder, then checks that MatchReplay reads every turn back.
+ * It then replays the recording cut off at every length (as when the match is still being written),
+ * which should read back the whole turns before the cut and ignore the rest,
+ * and recordings with damaged headers, which should be rejected with an IOException.
+ * Each check prints "OK" or "BAD".
+ */
+public class ReplayTester {
+
+    private static final int SIZE = 8, ROBOTS = 2, TURNS = 20, KEYFRAME_INTERVAL = 4;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("Testing match recording and replay");
+        System.out.println("==================================");
+        File file = File.createTempFile("replay", ".rbm");
+        file.deleteOnExit();
+        List<String> expected = record(file);
+        byte[] whole = Files.readAllBytes(file.toPath());
+
+        System.out.println("\nWhole recording:");
+        check("all " + expected.size() + " turns read back", replayed(file), expected);
+
+        System.out.println("\nRecording cut off:");
+        int bad = 0;
+        for (int length = 0; length < whole.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(whole, length));
+            try {
+                List<String> turns = replayed(file);
+                if (length < 16 || !turns.equals(expected.subList(0, turns.size()))) {
+                    bad++;
+                    System.out.println("BAD, cut off at " + length + " bytes, replay gave " + turns);
+                }
+            } catch (IOException e) {
+                if (length >= 16) {
+                    bad++;
+                    System.out.println("BAD, cut off at " + length + " bytes, replay failed: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                bad++;
+                System.out.println("BAD, cut off at " + length + " bytes, replay broke: " + e);
+            }
+        }
+        System.out.println((bad == 0 ? "OK" : "BAD") + ", replayed cut off at every one of " + whole.length + " lengths");
+
+        System.out.println("\nDamaged headers:");
+        damaged(file, whole, 4, -1, "negative world size");
+        damaged(file, whole, 4, 1 << 20, "huge world size");
+        damaged(file, whole, 8, -3, "negative number of robots");
+        damaged(file, whole, 8, Integer.MAX_VALUE, "huge number of robots");
+        damaged(file, whole, 0, 0, "wrong magic number");
+        System.out.println("Done");
+    }
+
+    /**
+     * Records a match where the robots walk about and the barrels come and go,
+     * returning the state of each turn as the replay should print it
+     */
+    private static List<String> record(File file) throws IOException {
+        List<String> turns = new ArrayList<>();
+        Set<Integer> barrels = new TreeSet<>();
+        Random random = new Random(1);
+        try (MatchRecorder recorder = new MatchRecorder(file, KEYFRAME_INTERVAL)) {
+            for (int turn = 0; turn < TURNS; turn++) {
+                RobotSnapshot[] robots = new RobotSnapshot[ROBOTS + 1];
+                GridIndex robotCells = new GridIndex(SIZE);
+                for (int id = 1; id <= ROBOTS; id++) {
+                    int x = (turn + id) % SIZE, y = id, dir = turn % 4, fuel = 100 - turn;
+                    robots[id] = new RobotSnapshot(id, "red", x, y, dir, fuel, x, y, dir, fuel, 0,
+                                                   turn % 3 == 0, id == 2 && turn > 15);
+                    robotCells.add(x, y);
+                }
+                int cell = random.nextInt(SIZE * SIZE);
+                if (barrels.remove(cell)) {
+                    recorder.barrelRemoved(cell);
+                } else {
+                    barrels.add(cell);
+                    recorder.barrelAdded(cell);
+                }
+                GridIndex barrelCells = new GridIndex(SIZE);
+                for (int barrel : barrels) {
+                    barrelCells.add(barrel % SIZE, barrel / SIZE);
+                }
+                WorldSnapshot snapshot = new WorldSnapshot(turn, SIZE, robots, barrelCells.view(), robotCells.view());
+                recorder.recordTick(snapshot);
+
+                StringBuilder text = new StringBuilder("Turn " + turn + ":");
+                for (int id = 1; id <= ROBOTS; id++) {
+                    RobotSnapshot robot = robots[id];
+                    text.append(" ").append(robot.x).append(",").append(robot.y).append(",").append(robot.dir)
+                        .append(",").append(robot.fuel).append(robot.shield ? "S" : "").append(robot.eliminated ? "X" : "");
+                }
+                turns.add(text.append(" ").append(barrels).toString());
+            }
+        }
+        return turns;
+    }
+
+    /**
+     * Every turn in the recording, in the same form as record() gives
+     */
+    private static List<String> replayed(File file) throws IOException {
+        MatchReplay replay = new MatchReplay(file);
+        List<String> turns = new ArrayList<>();
+        for (int tick = 0; tick < replay.ticks(); tick++) {
+            ReplayFrame frame = replay.frame(tick);
+            StringBuilder text = new StringBuilder("Turn " + frame.turn + ":");
+            for (int id = 1; id <= replay.numRobots(); id++) {
+                text.append(" ").append(frame.x[id]).append(",").append(frame.y[id]).append(",").append(frame.dir[id])
+                    .append(",").append(frame.fuel[id]).append(frame.shield[id] ? "S" : "").append(frame.eliminated[id] ? "X" : "");
+            }
+            Set<Integer> barrels = new TreeSet<>();
+            for (int i = 0; i < frame.barrels.count(); i++) {
+                barrels.add(frame.barrels.cell(i));
+            }
+            turns.add(text.append(" ").append(barrels).toString());
+        }
+        return turns;
+    }
+
+    private static void check(String what, List<String> actual, List<String> expected) {
+        if (actual.equals(expected)) {
+            System.out.println("OK, " + what);
+        } else {
+            System.out.println("BAD, " + what + "\n  got:      " + actual + "\n  expected: " + expected);
+        }
+    }
+
+    /**
+     * Replays the recording with the header int at the given offset changed, which should be rejected
+     */
+    private static void damaged(File file, byte[] whole, int offset, int value, String what) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.write(whole, 0, offset);
+            out.writeInt(value);
+            out.write(whole, offset + 4, whole.length - offset - 4);
+        }
+        try {
+            new MatchReplay(file);
+            System.out.println("BAD, replayed a recording with a " + what);
+        } catch (IOException e) {
+            System.out.println("OK, rejected a recording with a " + what + ": " + e.getMessage().replace(file.toString(), "match.rbm"));
+        } catch (RuntimeException e) {
+            System.out.println("BAD, replay broke on a recording with a " + what + ": " + e);
+        }
+    }
+}
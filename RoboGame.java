@@ -14,12 +14,17 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 @SuppressWarnings("serial")
 public class RoboGame extends JFrame {
 
-    private WorldComponent worldComp = new WorldComponent();
+    private WorldComponent worldComp;
     private File code1, code2;
+    private boolean started = false;  // programs can only be reloaded until the match starts
+    private boolean showFrameStats = false;
+    private double turnsPerSecond = GameLoop.NORMAL_SPEED;
 
     public static final String ASSET_DIRECTORY ="./assets/";     // the folder containing the images for the robot
     public static final String CODE_DIRECTORY = "./programs/";   // the folder containing the robot programs 
@@ -29,7 +34,18 @@ public class RoboGame extends JFrame {
      * Set up the interface for the game
      */
     public RoboGame() {
+        this(World.SIZE);
+    }
+
+    /**
+     * Set up the interface for a game in a worldSize x worldSize world
+     */
+    public RoboGame(int worldSize) {
         super("Robots");   // initialise the JFrame
+        worldComp = new WorldComponent(worldSize);
+        if (System.getProperty("robot.log") == null) {
+            setDebugDisplay(debugDisplay);
+        }
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setResizable(false);
 
@@ -37,6 +53,7 @@ public class RoboGame extends JFrame {
 
         createMenus();
         pack();
+        watchPrograms();
 
         setLocationRelativeTo(null);
 
@@ -55,6 +72,13 @@ public class RoboGame extends JFrame {
         final JMenu debugMenu = new JMenu("Debug ");
         menu.add(debugMenu);
 
+        final JMenu speedMenu = new JMenu("Speed ");
+        menu.add(speedMenu);
+        for (int times : new int[] { 1, 2, 10, 100 }) {
+            makeMenuItem(times + "x", speedMenu, (ActionEvent e) -> {setSpeed(GameLoop.NORMAL_SPEED * times);});
+        }
+        makeMenuItem("As fast as possible", speedMenu, (ActionEvent e) -> {setSpeed(GameLoop.AS_FAST_AS_POSSIBLE);});
+
         final JMenuItem load1 = makeMenuItem("Robot 1 (Red)",loadMenu, (ActionEvent e) -> {
                 code1 = getCodeFile();
                 if (code1 != null) {
@@ -75,6 +99,7 @@ public class RoboGame extends JFrame {
                 load1.setEnabled(false);
                 load2.setEnabled(false);
                 start.setEnabled(false);
+                started = true;
                 worldComp.start();
             });
 
@@ -90,10 +115,26 @@ public class RoboGame extends JFrame {
                 load1.setEnabled(true);
                 load2.setEnabled(true);
                 start.setEnabled(true);
+                started = false;
             });
 
-        final JMenuItem debugOn = makeMenuItem("On", debugMenu,(ActionEvent e) -> {debugDisplay = true;});
-        final JMenuItem debugOff = makeMenuItem("Off", debugMenu,(ActionEvent e) -> {debugDisplay = false;});
+        final JMenuItem debugOn = makeMenuItem("On", debugMenu,(ActionEvent e) -> {setDebugDisplay(true);});
+        final JMenuItem debugOff = makeMenuItem("Off", debugMenu,(ActionEvent e) -> {setDebugDisplay(false);});
+        final JMenuItem frameTimes = makeMenuItem("Frame times", debugMenu,(ActionEvent e) -> {
+                showFrameStats = !showFrameStats;
+                worldComp.setShowFrameStats(showFrameStats);
+            });
+        JMenuItem replay = makeMenuItem("Replay", menu,(ActionEvent e) -> {
+                File file = getReplayFile();
+                if (file != null) {
+                    // Reset goes back to a live game
+                    replay(file);
+                    started = true;
+                    load1.setEnabled(false);
+                    load2.setEnabled(false);
+                    start.setEnabled(false);
+                }
+            });
         JMenuItem quit = makeMenuItem("Quit", menu,(ActionEvent e) -> {System.exit(0);});
 
     }
@@ -126,10 +167,95 @@ public class RoboGame extends JFrame {
         return null;
     }
 
+    /*
+     * Ask the user (using a file dialog) for a recorded match to play back.
+     */
+    public File getReplayFile() {
+        JFileChooser chooser = new JFileChooser(".");
+        int res = chooser.showOpenDialog(this);
+        if (res == JFileChooser.APPROVE_OPTION) {
+            return chooser.getSelectedFile();
+        }
+        return null;
+    }
+
+    /**
+     * Reloads a robot's program whenever its file in the code directory is saved,
+     * as long as the match hasn't started yet
+     */
+    private void watchPrograms() {
+        try {
+            new ProgramWatcher(CODE_DIRECTORY, (File file) -> SwingUtilities.invokeLater(() -> reloadProgram(file)));
+        } catch (IOException e) {
+            System.out.println("Not watching " + CODE_DIRECTORY + " for changes: " + e.getMessage());
+        }
+    }
+
+    private void reloadProgram(File file) {
+        if (started) {
+            return;
+        }
+        if (sameFile(file, code1)) {
+            worldComp.loadRobotProgram(1, code1);
+        }
+        if (sameFile(file, code2)) {
+            worldComp.loadRobotProgram(2, code2);
+        }
+        worldComp.repaint();
+    }
+
+    private static boolean sameFile(File file, File code) {
+        try {
+            return code != null && Files.isSameFile(file.toPath(), code.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Plays back a recorded match, resizing the world to match the recording if needed
+     */
+    private void replay(File file) {
+        MatchReplay replay;
+        try {
+            replay = new MatchReplay(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Can't play " + file.getName() + ": " + e.getMessage());
+            return;
+        }
+        if (replay.size() != worldComp.getWorldSize()) {
+            worldComp.reset();
+            remove(worldComp);
+            worldComp = new WorldComponent(replay.size());
+            worldComp.setShowFrameStats(showFrameStats);
+            worldComp.setTurnsPerSecond(turnsPerSecond);
+            add(worldComp, BorderLayout.CENTER);
+            pack();
+        }
+        worldComp.replay(replay);
+    }
+
+    /**
+     * How many turns a second the game goes at, now and in later games
+     */
+    private void setSpeed(double turnsPerSecond) {
+        this.turnsPerSecond = turnsPerSecond;
+        worldComp.setTurnsPerSecond(turnsPerSecond);
+    }
+
+    /**
+     * Turns the robots' action and sensor messages on or off
+     */
+    private static void setDebugDisplay(boolean on) {
+        debugDisplay = on;
+        EventLog.setLevel(on ? EventLog.Level.DEBUG : EventLog.Level.OFF);
+    }
+
     /**
      * This is the entry point into the program.
+     * An optional argument gives the size of the world (default 12).
      */
     public static void main(String[] args) {
-        new RoboGame();
+        new RoboGame((args.length > 0) ? Integer.parseInt(args[0]) : World.SIZE);
     }
 }
@@ -1,16 +1,13 @@
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.ImageIO;
 
@@ -27,7 +24,7 @@ public class Robot {
      * Move forward one step.
      */
     public void move() {
-        debug("move");
+        log(EventLog.Event.MOVE, 0);
         currentAction = ACTION_MOVE;
         switch (dir) {
         case NORTH -> { targetY -= 1; }
@@ -37,25 +34,17 @@ public class Robot {
         }
         targetX = Math.max(0, targetX);
         targetY = Math.max(0, targetY);
-        targetX = Math.min(11, targetX);
-        targetY = Math.min(11, targetY);
-        Robot other = world.getOtherRobot(this);
-        if (other != null) {
-            if (other.targetX == targetX && other.targetY == targetY) {
-                // not allowed to move
-                targetX = x;
-                targetY = y;
-            }
-        }
+        targetX = Math.min(size - 1, targetX);
+        targetY = Math.min(size - 1, targetY);
+        // whether another robot is in the way is worked out when the world updates (see World.resolveMoves)
         processFuelAndBlock();
-        readState();
     }
 
     /**
      * Turn 90 degrees to the left
      */
     public void turnLeft() {
-        debug("turnL");
+        log(EventLog.Event.TURN_LEFT, 0);
         currentAction = ACTION_TURN_LEFT;
         switch (dir) {
         case NORTH -> { targetDir = DIRECTION.WEST;}			
@@ -64,14 +53,13 @@ public class Robot {
         case EAST -> { targetDir = DIRECTION.NORTH; }
         }
         processFuelAndBlock();
-        readState();
     }
 
     /**
      * Turn 90 degrees to the right
      */
     public void turnRight() {
-        debug("turnR");
+        log(EventLog.Event.TURN_RIGHT, 0);
         currentAction = ACTION_TURN_RIGHT;
         switch (dir) {
         case NORTH -> {targetDir = DIRECTION.EAST; }
@@ -80,14 +68,13 @@ public class Robot {
         case EAST -> {targetDir = DIRECTION.SOUTH; }
         }
         processFuelAndBlock();
-        readState();
     }
 
     /**
      * Turn 180 degrees.
      */
     public void turnAround() {
-        debug("turnAround");
+        log(EventLog.Event.TURN_AROUND, 0);
         currentAction = ACTION_TURN_AROUND;
         switch (dir) {
         case NORTH -> {targetDir = DIRECTION.SOUTH; }
@@ -96,7 +83,6 @@ public class Robot {
         case EAST -> {targetDir = DIRECTION.WEST; }
         }
         processFuelAndBlock();
-        readState();
     }
 
     /**
@@ -104,29 +90,26 @@ public class Robot {
      * cannot steal fuel, but this robot will use up fuel faster.
      */
     public void setShield(boolean shield) {
-        debug("shield " + (shield ? "on" : "off"));
+        log(EventLog.Event.SHIELD, shield ? 1 : 0);
         this.shield = shield;
-        readState();
     }
 
     /**
      * Take fuel barrel or siphon fuel from other robot.
      */
     public void takeFuel() {
-        debug("takeFuel");
+        log(EventLog.Event.TAKE_FUEL, 0);
         currentAction = ACTION_TAKE_FUEL;
         processFuelAndBlock();
-        readState();
     }
 
     /**
      * Do nothing and wait.
      */
     public void idleWait() {
-        debug("wait");
+        log(EventLog.Event.WAIT, 0);
         currentAction = ACTION_WAIT;
         processFuelAndBlock();
-        readState();
     }
 
     // -------------
@@ -140,63 +123,69 @@ public class Robot {
      * @return
      */
     public int getDistanceToWall() {
-        if (cancelled)
-            throw new RobotInterruptedException();
+        checkSensor();
+        int dist = 0;
         switch (dir) {
-        case NORTH -> {return y;}
-        case SOUTH -> {return 11 - y;}
-        case WEST -> {return x;}
-        case EAST -> {return 11 - x;}
+        case NORTH -> {dist = y;}
+        case SOUTH -> {dist = size - 1 - y;}
+        case WEST -> {dist = x;}
+        case EAST -> {dist = size - 1 - x;}
         }
-        return 0;
+        log(EventLog.Event.WALL_DIST, dist);
+        return dist;
     }
 
     /**
-     * Gets the left-right-location of the other robot relative to the current
+     * Gets the left-right-location of the closest other robot relative to the current
      * position and orientation.
      * 
-     * @return INFINITY if there isn't a second robot, -ve if to the left, +ve
+     * @return INFINITY if there isn't another robot, -ve if to the left, +ve
      *         if to the right and 0 if directly in front or behind
      */
     public int getOpponentLR() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        if (otherRobotPos == null) {
-            debug("oppLR=INFINTY");
-            return INFINITY;
+        checkSensor();
+        int gen = currentGeneration(), val;
+        if (sensorGenerations[SENSOR_OPP_LR] == gen) {
+            val = sensorValues[SENSOR_OPP_LR];
         } else {
-            debug("oppLR=" + otherRobotPos.x);
-            return otherRobotPos.x;
+            int n = closestOpponent();
+            val = (n < 0) ? INFINITY : relativeX(opponentSearch.x(n), opponentSearch.y(n));
+            remember(SENSOR_OPP_LR, gen, val);
         }
+        log(EventLog.Event.OPP_LR, val);
+        return val;
     }
 
     /**
-     * Gets the front-back-location of the other robot relative to the current
+     * Gets the front-back-location of the closest other robot relative to the current
      * position and orientation.
      * 
-     * @return INFINITY if there isn't a second robot, +ve if in front, -ve if
+     * @return INFINITY if there isn't another robot, +ve if in front, -ve if
      *         behind and 0 if directly to the left or right.
      */
     public int getOpponentFB() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        if (otherRobotPos == null) {
-            debug("oppFB=INFINTY");
-            return INFINITY;
+        checkSensor();
+        int gen = currentGeneration(), val;
+        if (sensorGenerations[SENSOR_OPP_FB] == gen) {
+            val = sensorValues[SENSOR_OPP_FB];
         } else {
-            debug("oppFB=" + otherRobotPos.y);
-            return otherRobotPos.y;
+            int n = closestOpponent();
+            val = (n < 0) ? INFINITY : relativeY(opponentSearch.x(n), opponentSearch.y(n));
+            remember(SENSOR_OPP_FB, gen, val);
         }
+        log(EventLog.Event.OPP_FB, val);
+        return val;
     }
 
     /**
      * @return The number of barrels currently in the world
      */
     public int numBarrels() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug("numBarrels = " + barrels.size());
-        return barrels.size();
+        checkSensor();
+        currentGeneration();
+        int num = barrelSearch.total();
+        log(EventLog.Event.NUM_BARRELS, num);
+        return num;
     }
 
     /**
@@ -207,8 +196,7 @@ public class Robot {
      *         the right and 0 if directly in front or behind
      */
     public int getClosestBarrelLR() {
-        if (cancelled)
-            throw new RobotInterruptedException();
+        checkSensor();
         return getBarrelLR(0);
     }
 
@@ -220,8 +208,7 @@ public class Robot {
      *         and 0 if directly to the left or right.
      */
     public int getClosestBarrelFB() {
-        if (cancelled)
-            throw new RobotInterruptedException();
+        checkSensor();
         return getBarrelFB(0);
     }
 
@@ -233,10 +220,17 @@ public class Robot {
      *         if to the right and 0 if directly in front or behind
      */
     public int getBarrelLR(int n) {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
-        debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+        checkSensor();
+        int gen = currentGeneration(), val;
+        if (n >= 0 && n < CACHED_BARRELS && sensorGenerations[SENSOR_BARREL_LR + n] == gen) {
+            val = sensorValues[SENSOR_BARREL_LR + n];
+        } else {
+            val = barrelSearch.find(n) ? relativeX(barrelSearch.x(n), barrelSearch.y(n)) : INFINITY;
+            if (n >= 0 && n < CACHED_BARRELS) {
+                remember(SENSOR_BARREL_LR + n, gen, val);
+            }
+        }
+        EventLog.log(EventLog.Event.BARREL_LR, this, n, val);
         return val;
     }
 
@@ -248,10 +242,17 @@ public class Robot {
      *         if behind and 0 if directly to the left or right.
      */
     public int getBarrelFB(int n) {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
-        debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+        checkSensor();
+        int gen = currentGeneration(), val;
+        if (n >= 0 && n < CACHED_BARRELS && sensorGenerations[SENSOR_BARREL_FB + n] == gen) {
+            val = sensorValues[SENSOR_BARREL_FB + n];
+        } else {
+            val = barrelSearch.find(n) ? relativeY(barrelSearch.x(n), barrelSearch.y(n)) : INFINITY;
+            if (n >= 0 && n < CACHED_BARRELS) {
+                remember(SENSOR_BARREL_FB + n, gen, val);
+            }
+        }
+        EventLog.log(EventLog.Event.BARREL_FB, this, n, val);
         return val;
     }
 
@@ -261,9 +262,8 @@ public class Robot {
      * @return
      */
     public int getFuel() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug("fuel=" + fuel);
+        checkSensor();
+        log(EventLog.Event.FUEL, fuel);
         return fuel;
     }
 
@@ -271,9 +271,8 @@ public class Robot {
      * @return boolean stating whether the shield is currently on.
      */
     public boolean isShieldOn() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug(shield ? "shield is on" : "shield is off");
+        checkSensor();
+        log(EventLog.Event.SHIELD_STATE, shield ? 1 : 0);
         return shield;
     }
 
@@ -289,45 +288,78 @@ public class Robot {
 
     private static final int
         FUEL_IDLE = 3, FUEL_MOVE = 6, FUEL_TURN = 5, FUEL_SHIELD = 15;
+    private static final int YIELD_INTERVAL = 1024;  // times round a loop between giving up the thread (a power of 2)
+
+    // The sensors that search for the closest robot or barrels remember their readings until the
+    // world next updates: a reading is only used again if it was taken in the current generation,
+    // which currentGeneration() moves on when there is a new snapshot. The readings of the first
+    // CACHED_BARRELS barrels are kept.
+    private static final int CACHED_BARRELS = 8;
+    private static final int
+        SENSOR_OPP_LR = 0, SENSOR_OPP_FB = 1, SENSOR_BARREL_LR = 2,
+        SENSOR_BARREL_FB = SENSOR_BARREL_LR + CACHED_BARRELS, SENSOR_SLOTS = SENSOR_BARREL_FB + CACHED_BARRELS;
 
     private enum DIRECTION { NORTH, WEST, SOUTH, EAST }
 
     private World world;
-    private Point otherRobotPos;
-    private List<Point> barrels = new ArrayList<Point>();
+    private int size;  // of the world
+    private int id;  // index in the world's robots, or 0 if not in a world
+    // Only the robot's own thread uses these, and they search the snapshot's copies of the
+    // world's indexes, so an update never changes what a search is part way through
+    private final GridSearch barrelSearch = new GridSearch();  // closest barrels, found as the sensors ask for them
+    private final GridSearch opponentSearch = new GridSearch();  // closest robots (including this one)
+    private WorldSnapshot searched;  // what the searches are of
     private ProgramNode program;
 
-    private boolean shield, dead, finished, cancelled;
+    private boolean shield, finished;
+    private volatile boolean cancelled;  // read in tight loops on the robot's thread (see checkCancelled)
+    private boolean siphoning;  // took fuel with no barrel here, to be resolved by the world
+    private int sensorReads;    // since the last action
+    private int loopChecks;     // times round a loop (see checkCancelled)
+    private long blockedNanos;  // time spent waiting for turns
+    private int generation = 0;  // of the sensor readings, moved on each new snapshot
+    private final int[] sensorValues = new int[SENSOR_SLOTS];
+    private final int[] sensorGenerations = new int[SENSOR_SLOTS];  // when each reading was taken (0 = never)
     private int fuel = 100, targetFuel;
     private int x, y, targetX, targetY;
     private DIRECTION dir, targetDir;
     //	private int x, y, dir, targetX, targetY, targetDir;
     private int currentAction;
+    private int lastAction;  // the action applied at the last world update
     private String colour;
-    private BufferedImage robotImage1, robotImage2, shieldImage;
+    private RobotSprites sprites;
+    private final AffineTransform drawTransform = new AffineTransform();
+    private final Arc2D.Double fuelArc = new Arc2D.Double();
+    private static final BasicStroke FUEL_STROKE = new BasicStroke(3);
     private boolean noWait = false;
+    private ExecutionMode executionMode = ExecutionMode.TREE;
 
     public Robot(World world, int x, int y, String colour, boolean noWait) {
+        this(world, 0, x, y, colour, noWait);
+    }
+
+    public Robot(World world, int id, int x, int y, String colour, boolean noWait) {
         this.world = world;
+        this.id = id;
         this.x = x;
         this.y = y;
         this.colour = colour;
         this.noWait = noWait;
         targetX = x;
         targetY = y;
-        dir = (y < World.SIZE / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
+        size = (world != null) ? world.getSize() : World.SIZE;
+        dir = (y < size / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
         targetDir = dir;
         targetFuel = fuel;
-        try {
-            robotImage1 = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"robot_" + colour + "_1.png"));
-            robotImage2 = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"robot_" + colour + "_2.png"));
-            shieldImage = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+ "shield.png"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
     }
 
-    private ArrayList<String> history = new ArrayList<>();
+    /**
+     * The images are only loaded the first time the robot is drawn,
+     * so robots in a headless world never touch them.
+     */
+    private void loadImages() {
+        sprites = RobotSprites.forColour(colour);
+    }
 
     /**
      * Set the program of this robot, if the controller represents is a valid
@@ -337,13 +369,24 @@ public class Robot {
         program = prog;
     }
 
+    /**
+     * Set how the program is run (walking the tree, or compiled to bytecode or closures)
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        executionMode = mode;
+    }
+
     /**
      * Start this robot running. If it has a valid program,, then executes the
      * program, passing in the robot. Otherwise, calls the default program.
      */
     public void run() {
         if (program != null) {
-            program.execute(this);
+            switch (executionMode) {
+            case TREE -> program.execute(this);
+            case BYTECODE -> ProgramCompiler.compile(program).execute(this);
+            case CLOSURE -> ClosureCompiler.compile(program).execute(this);
+            }
         } else {
             defaultProgram();
         }
@@ -374,70 +417,157 @@ public class Robot {
 
     /**
      * Called by the GUI only.
+     * Draws the robot as it was in the snapshot, the given fraction of the way through its turn.
      * 
      * @param g2d
+     * @param state
      * @param time
      */
-    public void draw(Graphics2D g2d, double time) {
-        double x = this.x * (1 - time) + targetX * time;
-        double y = this.y * (1 - time) + targetY * time;
+    public void draw(Graphics2D g2d, RobotSnapshot state, double time) {
+        if (sprites == null)
+            loadImages();
+        double x = state.fromX * (1 - time) + state.x * time;
+        double y = state.fromY * (1 - time) + state.y * time;
         x = x * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
         y = y * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
 
-        double angle = getAngle(dir);
-        switch (currentAction) {
-        case ACTION_TURN_LEFT -> { angle -= Math.toRadians(90) * time; }
-        case ACTION_TURN_RIGHT -> { angle += Math.toRadians(90) * time; }
-        case ACTION_TURN_AROUND -> { angle += Math.toRadians(180) * time; }
+        DIRECTION dir = DIRECTION.values()[state.fromDir];
+        double turn = 0;
+        switch (state.action) {
+        case ACTION_TURN_LEFT -> { turn = -Math.toRadians(90) * time; }
+        case ACTION_TURN_RIGHT -> { turn = Math.toRadians(90) * time; }
+        case ACTION_TURN_AROUND -> { turn = Math.toRadians(180) * time; }
         }
+        int frame = (((int) (time * 10)) % 2 == 0 && state.action < ACTION_TAKE_FUEL && state.action > 0) ? 2 : 1;
 
-        AffineTransform trans = new AffineTransform();
-        trans.translate(x, y);
-        trans.rotate(angle);
-        trans.translate(-robotImage1.getWidth() / 2d, -robotImage1.getHeight() / 2d);
-
-        if (((int) (time * 10)) % 2 == 0 && currentAction < ACTION_TAKE_FUEL && currentAction > 0) {
-            g2d.drawImage(robotImage2, trans, null);
+        if (turn == 0) {
+            // facing one of the four ways: the sprite is already drawn that way round, so just copy it
+            BufferedImage image = sprites.robot(frame, dir.ordinal());
+            drawTransform.setToTranslation(x - image.getWidth() / 2d, y - image.getHeight() / 2d);
+            g2d.drawImage(image, drawTransform, null);
         } else {
-            g2d.drawImage(robotImage1, trans, null);
+            BufferedImage image = sprites.robot(frame, DIRECTION.NORTH.ordinal());
+            drawTransform.setToTranslation(x, y);
+            drawTransform.rotate(getAngle(dir) + turn);
+            drawTransform.translate(-image.getWidth() / 2d, -image.getHeight() / 2d);
+            g2d.drawImage(image, drawTransform, null);
         }
 
-        if (shield) {
-            trans = new AffineTransform();
-            trans.translate(x - 25, y - 25);
-            g2d.drawImage(shieldImage, trans, null);
+        if (state.shield) {
+            drawTransform.setToTranslation(x - 25, y - 25);
+            g2d.drawImage(sprites.shield, drawTransform, null);
         }
 
-        double fuelCurrent = targetFuel * time + fuel * (1 - time);
-        if (fuelCurrent <= 0)
-            dead = true;
+        double fuelCurrent = state.fuelAt(time);
 
         // draw fuel indicator
-        Arc2D fuelArc = new Arc2D.Double(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
-        g2d.setStroke(new BasicStroke(3));
+        fuelArc.setArc(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
+        g2d.setStroke(FUEL_STROKE);
         g2d.setColor(Color.GREEN);
         g2d.draw(fuelArc);
     }
 
-    public boolean isDead() {
-        return dead;
+    /**
+     * Called by the "World" only.
+     * Whether the robot's fuel has run out as of the last world update
+     */
+    public boolean isOutOfFuel() {
+        return fuel <= 0;
     }
 
-    private Point getOtherRobotPosition() {
-        Robot other = world.getOtherRobot(this);
-        return (other != null) ? toRelative(new Point(other.x, other.y)) : null;
+    /**
+     * Called by the "World" only.
+     * The robot's fuel as of the last world update
+     */
+    public int getFuelLevel() {
+        return fuel;
+    }
+
+    public String getColour() {
+        return colour;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Called by the "World" only.
+     * Where the robot is as of the last world update
+     */
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Called by the "World" only.
+     * 0 = north, 1 = west, 2 = south, 3 = east
+     */
+    public int getDirection() {
+        return dir.ordinal();
+    }
+
+    /**
+     * Called by the "World" only.
+     * Same as isShieldOn(), but not a sensor, so it works after the robot is cancelled.
+     */
+    public boolean hasShield() {
+        return shield;
     }
 
-    private Point toRelative(Point p) {
-        int rx = p.x;
-        int ry = p.y;
+    /**
+     * Called by the "World" only, after an update.
+     * The robot as it is now, coming from where it was in the snapshot before (or from here, if none).
+     */
+    RobotSnapshot snapshot(RobotSnapshot before, boolean eliminated) {
+        return (before == null)
+            ? new RobotSnapshot(id, colour, x, y, dir.ordinal(), fuel, x, y, dir.ordinal(), fuel, 0, shield, eliminated)
+            : new RobotSnapshot(id, colour, before.x, before.y, before.dir, before.fuel,
+                                x, y, dir.ordinal(), fuel, lastAction, shield, eliminated);
+    }
+
+    /**
+     * Index into opponentSearch of the closest robot other than this one, or -1 if there is none
+     */
+    private int closestOpponent() {
+        for (int n = 0; opponentSearch.find(n); n++) {
+            if (opponentSearch.x(n) != x || opponentSearch.y(n) != y) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Left-right part of the position of (rx, ry) relative to this robot:
+     * -ve if to the left, +ve if to the right
+     */
+    private int relativeX(int rx, int ry) {
         switch (dir) {
-        case NORTH -> { return new Point(rx - x, y - ry); }
-        case SOUTH -> { return new Point(x - rx, ry - y);}
-        case WEST -> { return new Point(y - ry, x - rx); }
-        case EAST -> { return new Point(ry - y, rx - x); }
+        case NORTH -> { return rx - x; }
+        case SOUTH -> { return x - rx; }
+        case WEST -> { return y - ry; }
+        case EAST -> { return ry - y; }
         }
-        return null;
+        return 0;
+    }
+
+    /**
+     * Front-back part of the position of (rx, ry) relative to this robot:
+     * +ve if in front, -ve if behind
+     */
+    private int relativeY(int rx, int ry) {
+        switch (dir) {
+        case NORTH -> { return y - ry; }
+        case SOUTH -> { return ry - y; }
+        case WEST -> { return x - rx; }
+        case EAST -> { return rx - x; }
+        }
+        return 0;
     }
 
     private double getAngle(DIRECTION direction) {
@@ -460,50 +590,165 @@ public class Robot {
         case ACTION_TURN_AROUND -> { targetFuel -= FUEL_TURN; }
         case ACTION_WAIT ->        { targetFuel -= FUEL_IDLE; }
         case ACTION_TAKE_FUEL ->   {
-            if (world.getAvailableFuel().contains(new Point(x, y))) {
-                world.getAvailableFuel().remove(new Point(x, y));
+            if (world.takeBarrel(x, y)) {
                 targetFuel = 100;
                 return;
-            } else {// try to siphon fuel
-                Robot other = world.getOtherRobot(this);
-                if (other != null && !other.shield) {
-                    Point otherP = getOtherRobotPosition(); // relative position
-                    if (otherP.x == 0 && otherP.y == 1) {
-                        System.out.println("Taking fuel");
-                        int takeFuel = Math.min(25, other.targetFuel / 2);
-                        takeFuel = Math.min(other.targetFuel, takeFuel);
-                        targetFuel = Math.min(100, targetFuel + takeFuel);
-                        other.targetFuel -= takeFuel;
-                        return;
-                    }
-                }
+            } else {// try to siphon fuel from the robot in front when the world updates (see World.resolveSiphons)
+                siphoning = true;
             }
             targetFuel -= FUEL_IDLE; }
         }
         if (shield) targetFuel -= FUEL_SHIELD;
     }
 
+    /**
+     * Called by the "World" only, once every robot has acted.
+     * The cell the robot is moving to this turn (its own cell if it isn't moving)
+     */
+    int getTargetX() {
+        return targetX;
+    }
+
+    int getTargetY() {
+        return targetY;
+    }
+
+    /**
+     * Called by the "World" only, when another robot is in the way (see World.resolveMoves).
+     */
+    void blockMove() {
+        targetX = x;
+        targetY = y;
+    }
+
+    /**
+     * Called by the "World" only, once every robot has acted.
+     * The robot this one is siphoning fuel from this turn (the one in front, if its shield is off), or null.
+     */
+    Robot siphonTarget() {
+        if (!siphoning) {
+            return null;
+        }
+        siphoning = false;
+        int frontX = x, frontY = y;
+        switch (dir) {
+        case NORTH -> { frontY -= 1; }
+        case WEST -> { frontX -= 1; }
+        case SOUTH -> { frontY += 1; }
+        case EAST -> { frontX += 1; }
+        }
+        Robot other = world.getRobotAt(frontX, frontY);
+        return (other != null && !other.shield) ? other : null;
+    }
+
+    /**
+     * Called by the "World" only.
+     * How much fuel a robot siphoning from this one takes
+     */
+    int siphonableFuel() {
+        int takeFuel = Math.min(25, targetFuel / 2);
+        return Math.min(targetFuel, takeFuel);
+    }
+
+    /**
+     * Called by the "World" only.
+     */
+    void siphon(int takeFuel) {
+        log(EventLog.Event.SIPHON, takeFuel);
+        // a successful siphon costs nothing
+        targetFuel = Math.min(100, fuel + takeFuel);
+    }
+
+    /**
+     * Called by the "World" only.
+     */
+    void loseFuel(int amount) {
+        targetFuel -= amount;
+    }
+
+    /**
+     * Every sensor starts with this. If the world has a sensor budget (see World.setSensorBudget),
+     * a robot that reads more sensors than that without acting is parked until the next turn,
+     * as if it had missed the turn, instead of being left for the world to time out
+     * (which would depend on thread timing).
+     */
+    private void checkSensor() {
+        if (cancelled)
+            throw new RobotInterruptedException();
+        if (world != null && world.getSensorBudget() > 0 && ++sensorReads > world.getSensorBudget()) {
+            sensorReads = 0;
+            missTurn();
+        }
+    }
+
+    /**
+     * Called by the interpreters each time round a loop, so a program looping with
+     * no actions or sensors (eg. loop { $x = add($x, 1); }) still stops when the robot is cancelled.
+     */
+    public void checkCancelled() {
+        if (cancelled)
+            throw new RobotInterruptedException();
+        // let other robots run now and then: a virtual thread is only taken off its carrier
+        // when it blocks or yields, and other threads on a busy core wait for the scheduler
+        if ((++loopChecks & (YIELD_INTERVAL - 1)) == 0)
+            Thread.yield();
+    }
+
     private void processFuelAndBlock() {
         if (cancelled)
             throw new RobotInterruptedException();
+        sensorReads = 0;
         // use fuel
         processFuel();
         if (this.noWait) {
             updatePending();
         } else {
-            while (currentAction != 0) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                }
-            }
+            // parks until the world applies this action
+            awaitTurn();
+        }
+    }
+
+    private void awaitTurn() {
+        long start = System.nanoTime();
+        try {
+            world.awaitTurn(this);
+        } finally {
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void missTurn() {
+        long start = System.nanoTime();
+        try {
+            world.missTurn(this);
+        } finally {
+            blockedNanos += System.nanoTime() - start;
         }
     }
 
+    /**
+     * Called by the "World" only.
+     * Whether the robot has chosen an action that the world hasn't applied yet.
+     */
+    boolean hasStagedAction() {
+        return currentAction != 0;
+    }
+
+    /**
+     * How long this robot's program has spent waiting for its turns,
+     * rather than running (see ProgramProfiler)
+     */
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
     /**
      * Called by the "World" only.
      */
     public void updatePending() {
+        if (!cancelled) {
+            lastAction = finished ? ACTION_WAIT : currentAction;
+        }
         // reset turn
         x = targetX;
         y = targetY;
@@ -513,22 +758,30 @@ public class Robot {
             currentAction = ACTION_WAIT;
             processFuel();
         }
-        otherRobotPos = getOtherRobotPosition();
-        barrels = new ArrayList<Point>(world.getAvailableFuel());
-        for (int i = 0; i < barrels.size(); i++) {
-            Point p = toRelative(barrels.get(i));
-            barrels.set(i, p);
+        currentAction = 0;
+    }
+
+    /**
+     * The generation of the sensor readings. If the world has published a new snapshot
+     * since the searches started, starts them again on it, and every remembered reading is out of date.
+     */
+    private int currentGeneration() {
+        WorldSnapshot now = world.getSnapshot();
+        if (now != searched) {
+            searched = now;
+            barrelSearch.reset(now.barrelGrid(), x, y);
+            opponentSearch.reset(now.robotGrid(), x, y);
+            generation++;
         }
-        Collections.sort(barrels, new Comparator<Point>() {
+        return generation;
+    }
 
-                @Override
-                public int compare(Point p1, Point p2) {
-                    int d1 = Math.abs(p1.x) + Math.abs(p1.y);
-                    int d2 = Math.abs(p2.x) + Math.abs(p2.y);
-                    return d1 - d2;
-                }
-            });
-        currentAction = 0;
+    /**
+     * Keeps a sensor reading until the world next updates
+     */
+    private void remember(int slot, int gen, int value) {
+        sensorValues[slot] = value;
+        sensorGenerations[slot] = gen;
     }
 
     public String toString() {
@@ -536,13 +789,10 @@ public class Robot {
     }
 
     /**
-     * print a message about the action to System.out if debugging is currently
-     * turned on.
+     * Records an action or sensor reading in the event log (if its level is turned on)
      */
-    private void debug(String action) {
-        //		if (RoboGame.debugDisplay && program != null) {
-        System.out.println(colour + " robot: " + action);
-        //}
+    private void log(EventLog.Event event, int value) {
+        EventLog.log(event, this, 0, value);
     }
 
     /**
@@ -575,15 +825,92 @@ public class Robot {
     }
 
     /**
-     * Encodes the state of the robot, used for automarking.
+     * Called by the replayer only.
+     * Puts the robot in the given state, as if it had just taken an action to get there
+     * (which is worked out from how it moved or turned, so that it is animated).
      */
-    public void readState() {
-        String state = String.format("%-4s @(%2d,%2d) dir:%-5s fuel:%3d %s",
-                                     colour, x, y, dir, fuel, shield?"shielded":"unshielded");
-        history.add(state);
-        //System.out.println(state);
+    void replayTo(int newX, int newY, int newDir, int newFuel, boolean newShield) {
+        int turn = (newDir - targetDir.ordinal() + 4) % 4;  // quarter turns to the left
+        if (targetX != newX || targetY != newY) {
+            lastAction = ACTION_MOVE;
+        } else {
+            lastAction = switch (turn) {
+            case 1 -> ACTION_TURN_LEFT;
+            case 2 -> ACTION_TURN_AROUND;
+            case 3 -> ACTION_TURN_RIGHT;
+            default -> ACTION_WAIT;
+            };
+        }
+        x = targetX = newX;
+        y = targetY = newY;
+        dir = targetDir = DIRECTION.values()[newDir];
+        fuel = targetFuel = newFuel;
+        shield = newShield;
     }
 
 
 
 }
+
+/**
+ * The images for robots of one colour, loaded once and shared by all of them.
+ * Each robot image is kept turned to face each of the four directions (by their
+ * ordinal in Robot.DIRECTION), so a robot that isn't turning can be drawn without rotating it.
+ */
+class RobotSprites {
+    private static final Map<String, RobotSprites> byColour = new ConcurrentHashMap<>();
+
+    private final BufferedImage[][] robot = new BufferedImage[3][];  // by frame (1 or 2), then direction
+    final BufferedImage shield;
+
+    static RobotSprites forColour(String colour) {
+        return byColour.computeIfAbsent(colour, RobotSprites::new);
+    }
+
+    private RobotSprites(String colour) {
+        robot[1] = turnings(load("robot_" + colour + "_1.png"));
+        robot[2] = turnings(load("robot_" + colour + "_2.png"));
+        shield = load("shield.png");
+    }
+
+    BufferedImage robot(int frame, int direction) {
+        return robot[frame][direction];
+    }
+
+    private static BufferedImage load(String name) {
+        try {
+            return ImageIO.read(new File(RoboGame.ASSET_DIRECTORY + name));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        }
+    }
+
+    /**
+     * The image (drawn facing north) turned to face north, west, south and east
+     */
+    private static BufferedImage[] turnings(BufferedImage image) {
+        return new BufferedImage[] { image, quarterTurns(image, 3), quarterTurns(image, 2), quarterTurns(image, 1) };
+    }
+
+    /**
+     * A copy of the image turned clockwise by the given number of quarter turns.
+     * Done pixel by pixel, so the copy is exact.
+     */
+    private static BufferedImage quarterTurns(BufferedImage image, int turns) {
+        int w = image.getWidth(), h = image.getHeight();
+        BufferedImage turned = new BufferedImage((turns % 2 == 0) ? w : h, (turns % 2 == 0) ? h : w, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int argb = image.getRGB(x, y);
+                switch (turns) {
+                case 1 -> turned.setRGB(h - 1 - y, x, argb);
+                case 2 -> turned.setRGB(w - 1 - x, h - 1 - y, argb);
+                case 3 -> turned.setRGB(y, w - 1 - x, argb);
+                default -> throw new IllegalArgumentException("Not 1 to 3 quarter turns: " + turns); // this should never run
+                }
+            }
+        }
+        return turned;
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Runs a whole match with no GUI and no animation delays.
+ * The world is put in lockstep mode, so each turn is applied as soon as
+ * all the robots have chosen their action, and the match ends when only one
+ * robot has fuel left (or none do) or the turn limit is reached.
+ *
+ * A robot that hasn't acted after stallMillis misses the turn. Which turns a program that
+ * spins on its sensors misses then depends on thread timing, unless there is a sensor budget
+ * (see setSensorBudget).
+ */
+public class Simulator {
+
+    public static final int DEFAULT_MAX_TURNS = 1000;
+    public static final long DEFAULT_STALL_MILLIS = 100;
+
+    private final World world;
+    private final int maxTurns;
+    private long stallMillis = DEFAULT_STALL_MILLIS;
+
+    public Simulator(World world, int maxTurns) {
+        this.world = world;
+        this.maxTurns = maxTurns;
+        world.setLockstep(true);
+    }
+
+    /**
+     * How long to wait for a robot to choose an action before moving on without it
+     */
+    public void setStallMillis(long stallMillis) {
+        this.stallMillis = stallMillis;
+    }
+
+    /**
+     * Makes a robot that takes more than readsPerAction sensor readings without acting miss
+     * the turn there and then, rather than when stallMillis runs out, so a program that spins
+     * on its sensors plays out the same whatever the thread timing. Off (0) by default, since
+     * the game itself has no such rule (see World.setSensorBudget).
+     */
+    public void setSensorBudget(int readsPerAction) {
+        world.setSensorBudget(readsPerAction);
+    }
+
+    /**
+     * Runs the match to the end. The world can no longer be used afterwards.
+     */
+    public MatchResult run() {
+        world.start();
+        int numRobots = world.getNumRobots();
+        // a lone robot plays until it runs out of fuel
+        int lastRobot = Math.min(1, numRobots - 1);
+        while (world.getTurn() < maxTurns && world.getRobotsRunning() > lastRobot) {
+            world.step(stallMillis);
+        }
+        boolean[] dead = new boolean[numRobots + 1];
+        int[] fuel = new int[numRobots + 1];
+        String[] colours = new String[numRobots + 1];
+        for (int id = 1; id <= numRobots; id++) {
+            Robot robot = world.getRobot(id);
+            dead[id] = robot.isOutOfFuel();
+            fuel[id] = robot.getFuelLevel();
+            colours[id] = robot.getColour();
+        }
+        MatchResult result = new MatchResult(dead, fuel, colours, world.getTurn());
+        world.reset();
+        return result;
+    }
+
+    /**
+     * Runs a single match from the command line:
+     *   java Simulator [--record match.rbm] [--seed n] [--sensor-budget n] robot1.prog robot2.prog [maxTurns] [worldSize] [barrelsPerTurn] [numRobots]
+     * Use - instead of a file for a robot to give it the default program.
+     * With --record, every turn is written to the file (see MatchReplay).
+     * With --sensor-budget, a robot that reads more than n sensors between actions misses the turn
+     * (see setSensorBudget).
+     * The seed fixes where the robots start and the barrels appear; without one a
+     * random seed is used, and printed so the match can be run again.
+     * With more than two robots, the red (odd numbered) robots all run the first
+     * program and the blue (even numbered) ones the second.
+     */
+    public static void main(String[] args) throws IOException {
+        File recording = null;
+        long seed = new SplittableRandom().nextLong();
+        int sensorBudget = 0;
+        while (args.length > 1 && args[0].startsWith("--")) {
+            switch (args[0]) {
+            case "--record" -> recording = new File(args[1]);
+            case "--seed" -> seed = Long.parseLong(args[1]);
+            case "--sensor-budget" -> sensorBudget = Integer.parseInt(args[1]);
+            default -> {
+                System.out.println("Unknown option " + args[0]);
+                return;
+            }
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 2) {
+            System.out.println("Usage: java Simulator [--record match.rbm] [--seed n] [--sensor-budget n] robot1.prog robot2.prog [maxTurns] [worldSize] [barrelsPerTurn] [numRobots]");
+            return;
+        }
+        int maxTurns = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_TURNS;
+        int size = (args.length > 3) ? Integer.parseInt(args[3]) : World.SIZE;
+        int numRobots = (args.length > 5) ? Integer.parseInt(args[5]) : 2;
+        World world = new World(size, numRobots, seed);
+        if (args.length > 4) {
+            world.setFuelSupply(2, Double.parseDouble(args[4]));
+        }
+        for (int id = 1; id <= numRobots; id++) {
+            String file = args[(id - 1) % 2];
+            if (!file.equals("-")) {
+                world.loadRobotProgram(id, new File(file));
+            }
+        }
+        MatchRecorder recorder = null;
+        if (recording != null) {
+            recorder = new MatchRecorder(recording);
+            world.setRecorder(recorder);
+        }
+        long start = System.nanoTime();
+        Simulator simulator = new Simulator(world, maxTurns);
+        simulator.setSensorBudget(sensorBudget);
+        MatchResult result = simulator.run();
+        long elapsed = System.nanoTime() - start;
+        if (recorder != null) {
+            recorder.close();
+        }
+        System.out.println(result);
+        System.out.println("Seed " + seed);
+        System.out.printf("Match took %.1f ms%n", elapsed / 1e6);
+        EventLog.flush();
+    }
+}
+
+/**
+ * The outcome of one match: which robots ran out of fuel, how much fuel each had left,
+ * and how many turns it took. Arrays are indexed by robot id (from 1).
+ */
+class MatchResult {
+    final boolean[] dead;
+    final int[] fuel;
+    final String[] colours;
+    final int turns;
+
+    MatchResult(boolean[] dead, int[] fuel, String[] colours, int turns) {
+        this.dead = dead;
+        this.fuel = fuel;
+        this.colours = colours;
+        this.turns = turns;
+    }
+
+    int numRobots() {
+        return dead.length - 1;
+    }
+
+    int fuel(int id) {
+        return fuel[id];
+    }
+
+    /**
+     * The id of the only robot with fuel left, or 0 for a draw
+     * (all ran out, or more than one did not)
+     */
+    int winner() {
+        int winner = 0;
+        for (int id = 1; id <= numRobots(); id++) {
+            if (!dead[id]) {
+                if (winner != 0) {
+                    return 0;
+                }
+                winner = id;
+            }
+        }
+        return (winner != 0 && numRobots() > 1) ? winner : 0;
+    }
+
+    private int survivors() {
+        int count = 0;
+        for (int id = 1; id <= numRobots(); id++) {
+            if (!dead[id]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String toString() {
+        int winner = winner();
+        String outcome;
+        if (winner != 0) {
+            outcome = "Robot " + winner + " (" + colours[winner] + ") wins";
+        } else if (survivors() == 0) {
+            outcome = (numRobots() == 2) ? "Both robots ran out of fuel" : "All robots ran out of fuel";
+        } else {
+            outcome = "Draw";
+        }
+        StringBuilder fuels = new StringBuilder();
+        for (int id = 1; id <= numRobots(); id++) {
+            if (id > 1) {
+                fuels.append(", ");
+            }
+            fuels.append((numRobots() == 2) ? colours[id] : "robot " + id).append(" fuel ").append(fuel[id]);
+        }
+        return outcome + " after " + turns + " turns (" + fuels + ")";
+    }
+}
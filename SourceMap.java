@@ -0,0 +1,125 @@
+import java.util.*;
+
+/**
+ * Where each node of a parsed program came from in the program text: from the start of
+ * its first token to the end of its last, and the line and column that is on.
+ *
+ * The positions are kept here rather than in the nodes, since a node can be shared
+ * between programs where it is in different places (see ProgramCache and IncrementalParser),
+ * and the nodes the optimizer makes are not in the text at all.
+ */
+class SourceMap {
+
+    final ProgramNode program;
+    private final String text;
+    private final int[] lineStarts;  // the offset of the start of each line
+    private final Map<Object, int[]> spans = new IdentityHashMap<>();
+
+    /**
+     * Parses the text, noting where every statement, block, condition and expression is
+     */
+    static SourceMap parse(String text) {
+        return new SourceMap(text);
+    }
+
+    private SourceMap(String text) {
+        this.text = text;
+        List<Integer> starts = new ArrayList<>(List.of(0));
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                starts.add(i + 1);
+            }
+        }
+        lineStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        program = new Recorder().parse(text);
+    }
+
+    /**
+     * Whether the node was made by the parse (rather than the optimizer, say)
+     */
+    boolean contains(Object node) {
+        return spans.containsKey(node);
+    }
+
+    /**
+     * The offset in the text of the start of the node
+     */
+    int start(Object node) {
+        return spans.get(node)[0];
+    }
+
+    /**
+     * The offset in the text just after the end of the node
+     */
+    int end(Object node) {
+        return spans.get(node)[1];
+    }
+
+    /**
+     * The line the node starts on (from 1)
+     */
+    int line(Object node) {
+        return lineOf(start(node));
+    }
+
+    /**
+     * The column the node starts at (from 1)
+     */
+    int column(Object node) {
+        return start(node) - lineStarts[line(node) - 1] + 1;
+    }
+
+    int lineOf(int offset) {
+        int line = Arrays.binarySearch(lineStarts, offset);
+        return (line >= 0) ? line + 1 : -line - 1;
+    }
+
+    int numLines() {
+        return lineStarts.length;
+    }
+
+    /**
+     * The text of the line (from 1), without its line break
+     */
+    String lineText(int line) {
+        int start = lineStarts[line - 1];
+        int end = (line < lineStarts.length) ? lineStarts[line] - 1 : text.length();
+        return text.substring(start, end).stripTrailing();
+    }
+
+    /**
+     * The parser, noting the span of each node as it makes it
+     */
+    private class Recorder extends Parser {
+
+        @Override
+        ProgNode parseStatement(Tokens s) {
+            Token first = s.peek();
+            return record(super.parseStatement(s), first, s);
+        }
+
+        @Override
+        BlockNode parseBlock(Tokens s) {
+            Token first = s.peek();
+            return record(super.parseBlock(s), first, s);
+        }
+
+        @Override
+        BooleanNode parseCond(Tokens s) {
+            Token first = s.peek();
+            return record(super.parseCond(s), first, s);
+        }
+
+        @Override
+        IntNode parseExpression(Tokens s) {
+            Token first = s.peek();
+            return record(super.parseExpression(s), first, s);
+        }
+
+        private <T> T record(T node, Token first, Tokens s) {
+            Token last = s.peek(-1);
+            spans.putIfAbsent(node, new int[] { first.offset, last.offset + last.text.length() });
+            return node;
+        }
+    }
+}
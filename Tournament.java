@@ -0,0 +1,232 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Ranks every program in a directory by playing a round robin of headless matches.
+ * Every ordered pair of programs plays (so each program gets both colours),
+ * several rounds each, with the matches spread across all cores.
+ * With a seed and a sensor budget (see Simulator.setSensorBudget), the results are the same every run.
+ * Each robot has a thread of its own for the whole match; on Java 21 or later, -Drobot.threads=virtual
+ * makes those virtual threads (see World.setRobotExecutor).
+ */
+public class Tournament {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<ProgramNode> programs = new ArrayList<>();
+    private final int rounds;
+    private final int maxTurns;
+    private final int worldSize;
+    private File recordDirectory;
+    private int sensorBudget = 0;
+    private SplittableRandom rand = new SplittableRandom();
+
+    public Tournament(int rounds, int maxTurns, int worldSize) {
+        this.rounds = rounds;
+        this.maxTurns = maxTurns;
+        this.worldSize = worldSize;
+    }
+
+    /**
+     * Records every match into the directory (see MatchRecorder)
+     */
+    public void setRecordDirectory(File directory) {
+        recordDirectory = directory;
+    }
+
+    /**
+     * Makes the tournament repeatable: every match gets its own generator, split off
+     * this seed in a fixed order, so the same seed gives the same worlds however the
+     * matches are spread across threads
+     */
+    public void setSeed(long seed) {
+        rand = new SplittableRandom(seed);
+    }
+
+    /**
+     * Plays every match with the given sensor budget (see Simulator.setSensorBudget).
+     * Off (0) by default.
+     */
+    public void setSensorBudget(int readsPerAction) {
+        sensorBudget = readsPerAction;
+    }
+
+    /**
+     * Adds a program to the tournament. Returns false if it did not parse.
+     */
+    public boolean addProgram(File file) {
+        try {
+            ProgramCache.Entry prog = ProgramCache.load(file);
+            if (prog.program == null) {
+                return false;
+            }
+            names.add(file.getName());
+            programs.add(prog.optimized);
+            return true;
+        } catch (IOException | ParserFailureException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Plays every match and returns the standings, best first
+     */
+    public List<Standing> run(int threads) throws InterruptedException {
+        List<Standing> standings = new ArrayList<>();
+        for (String name : names) {
+            standings.add(new Standing(name));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Callable<Void>> matches = new ArrayList<>();
+        for (int red = 0; red < programs.size(); red++) {
+            for (int blue = 0; blue < programs.size(); blue++) {
+                if (red == blue) {
+                    continue;
+                }
+                for (int round = 0; round < rounds; round++) {
+                    final int r = red, b = blue, n = round;
+                    final SplittableRandom matchRand = rand.split();
+                    matches.add(() -> {
+                        File recording = (recordDirectory == null) ? null
+                            : new File(recordDirectory, names.get(r) + "-vs-" + names.get(b) + "-" + n + ".rbm");
+                        MatchResult result = playMatch(programs.get(r), programs.get(b), matchRand, recording);
+                        standings.get(r).record(result.winner(), 1, result.fuel(1));
+                        standings.get(b).record(result.winner(), 2, result.fuel(2));
+                        return null;
+                    });
+                }
+            }
+        }
+        try {
+            for (Future<Void> match : pool.invokeAll(matches)) {
+                match.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Match failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        standings.sort(Comparator.comparingInt(Standing::points).reversed()
+                       .thenComparing(Comparator.comparingLong(Standing::totalFuel).reversed()));
+        return standings;
+    }
+
+    private MatchResult playMatch(ProgramNode red, ProgramNode blue, SplittableRandom rand,
+                                  File recording) throws IOException {
+        World world = new World(worldSize, 2, rand);
+        world.getRobot(1).setProgram(red);
+        world.getRobot(2).setProgram(blue);
+        Simulator simulator = new Simulator(world, maxTurns);
+        simulator.setSensorBudget(sensorBudget);
+        if (recording == null) {
+            return simulator.run();
+        }
+        try (MatchRecorder recorder = new MatchRecorder(recording)) {
+            world.setRecorder(recorder);
+            return simulator.run();
+        }
+    }
+
+    /**
+     * Runs a tournament from the command line:
+     *   java Tournament [--seed n] [--sensor-budget n] [directory] [rounds] [maxTurns] [worldSize] [recordDirectory]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Long seed = null;
+        int sensorBudget = 0;
+        while (args.length > 1 && args[0].startsWith("--")) {
+            switch (args[0]) {
+            case "--seed" -> seed = Long.parseLong(args[1]);
+            case "--sensor-budget" -> sensorBudget = Integer.parseInt(args[1]);
+            default -> {
+                System.out.println("Unknown option " + args[0]);
+                return;
+            }
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        File dir = new File((args.length > 0) ? args[0] : RoboGame.CODE_DIRECTORY);
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int maxTurns = (args.length > 2) ? Integer.parseInt(args[2]) : Simulator.DEFAULT_MAX_TURNS;
+        int worldSize = (args.length > 3) ? Integer.parseInt(args[3]) : World.SIZE;
+
+        Tournament tournament = new Tournament(rounds, maxTurns, worldSize);
+        if (seed != null) {
+            tournament.setSeed(seed);
+        }
+        tournament.setSensorBudget(sensorBudget);
+        if (args.length > 4) {
+            File recordDirectory = new File(args[4]);
+            recordDirectory.mkdirs();
+            tournament.setRecordDirectory(recordDirectory);
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".prog"));
+        if (files == null) {
+            System.out.println("Can't find directory '" + dir + "'");
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!tournament.addProgram(file)) {
+                System.out.println("Skipping " + file.getName() + ": does not parse");
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Standing> standings = tournament.run(Runtime.getRuntime().availableProcessors());
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-20s %6s %6s %6s %6s %10s%n", "Program", "Played", "Won", "Lost", "Drawn", "Avg fuel");
+        for (Standing s : standings) {
+            System.out.println(s);
+        }
+        System.out.printf("Tournament took %.1f s%n", elapsed / 1e9);
+        EventLog.flush();
+    }
+}
+
+/**
+ * Win/loss/draw record and fuel total for one program in a tournament.
+ * Updated from many match threads at once.
+ */
+class Standing {
+    final String name;
+    private int played, won, lost, drawn;
+    private long totalFuel;
+
+    Standing(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one match, where this program played as robot id (1 or 2)
+     */
+    synchronized void record(int winner, int id, int fuelLeft) {
+        played++;
+        if (winner == 0) {
+            drawn++;
+        } else if (winner == id) {
+            won++;
+        } else {
+            lost++;
+        }
+        totalFuel += Math.max(0, fuelLeft);
+    }
+
+    /**
+     * 3 points for a win, 1 for a draw
+     */
+    synchronized int points() {
+        return 3 * won + drawn;
+    }
+
+    synchronized long totalFuel() {
+        return totalFuel;
+    }
+
+    public synchronized String toString() {
+        return String.format("%-20s %6d %6d %6d %6d %10.1f", name, played, won, lost, drawn,
+                             (played == 0) ? 0.0 : (double) totalFuel / played);
+    }
+}
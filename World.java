@@ -1,30 +1,162 @@
 
 import java.awt.Point;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.Set;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** Simulation of the robots in their world */
 
 public class World {
 
-    public static final int SIZE = 12;
+    public static final int SIZE = 12;  // the default size
+
+    private final int size;
+    private int initialBarrels = 2;
+    private double barrelsPerTurn = 0.2;
 
     protected Set<Point> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Point, Boolean>());
-    private Random rand = new Random();
-    protected Robot[] robots;
+    // The robots' sensors search each snapshot's copy of the index (see publishSnapshot),
+    // so they all see the barrels as they were at the start of the turn
+    private final GridIndex barrelIndex;
+    private final Queue<Point> takenBarrels = new ConcurrentLinkedQueue<>();
+    private final SplittableRandom rand;  // where robots start and barrels appear
+    protected Robot[] robots;  // robots[0] is unused, so robot ids start at 1
+
+    // Where the robots are as of the start of the turn (copied into each snapshot for the opponent sensors,
+    // and for working out who moves and who siphons from whom)
+    private final GridIndex robotIndex;
+    private final Map<Integer, Robot> robotsAt = new HashMap<>();
+    private final Map<Integer, Integer> movingInto = new HashMap<>();  // cell -> how many robots are moving into it this turn
+    private boolean[] staying;
+    private Robot[] siphonFrom;
+    private int[] siphonAmount;
+    private int[] indexedCells;
+    private boolean[] eliminated;
+    private int robotsRunning;
+
+    // Turn coordination between the robot threads and whatever advances the world.
+    // Each updateWorld() is a new turn; robots that have acted park on turnAdvanced until it comes.
+    private final ReentrantLock turnLock = new ReentrantLock();
+    private final Condition turnAdvanced = turnLock.newCondition();
+    private final Condition robotReady = turnLock.newCondition();
+    private int turn = 0;
+    private boolean[] waiting, stalled, finished;
+    private boolean lockstep = false;
+    private int sensorBudget = 0;  // sensor readings allowed between actions, or 0 for no limit
+
+    // Runs the robot programs. Robots spend nearly all their time parked waiting for the
+    // next turn, so this is shared by every world rather than costing threads per world.
+    private static final Executor DEFAULT_ROBOT_EXECUTOR = createRobotExecutor();
+    private Executor robotExecutor = DEFAULT_ROBOT_EXECUTOR;
+    private MatchRecorder recorder;
+
+    // The state as of the last update, for anything reading the world from another thread
+    private volatile WorldSnapshot snapshot;
+    private boolean barrelsChanged = true, robotsMoved = true;  // since the last snapshot
 
     public World() {
-        robots = new Robot[] { null, new Robot(this, 0, 0, "red", false), new Robot(this, SIZE - 1, SIZE - 1, "blue", false) };
+        this(SIZE);
+    }
+
+    /**
+     * A world with size x size cells and the usual two robots
+     */
+    public World(int size) {
+        this(size, 2);
+    }
+
+    /**
+     * A world with size x size cells and numRobots robots.
+     * The first four start in the corners (red top left, blue bottom right, ...),
+     * any others in random empty cells. Odd numbered robots are red, even ones blue.
+     */
+    public World(int size, int numRobots) {
+        this(size, numRobots, new SplittableRandom());
+    }
+
+    /**
+     * A world whose robot placement and barrels are the same every time for the same seed
+     */
+    public World(int size, int numRobots, long seed) {
+        this(size, numRobots, new SplittableRandom(seed));
+    }
+
+    /**
+     * A world taking its random numbers from rand, which it then owns.
+     * To run many seeded worlds in parallel, give each one rand.split() of a seeded generator.
+     */
+    public World(int size, int numRobots, SplittableRandom rand) {
+        this.rand = rand;
+        if (size < 2) {
+            throw new IllegalArgumentException("World size must be at least 2");
+        }
+        if (numRobots < 1 || numRobots > size * size) {
+            throw new IllegalArgumentException("A world of size " + size + " can't hold " + numRobots + " robots");
+        }
+        this.size = size;
+        barrelIndex = new GridIndex(size);
+        robotIndex = new GridIndex(size);
+        robots = new Robot[numRobots + 1];
+        indexedCells = new int[numRobots + 1];
+        eliminated = new boolean[numRobots + 1];
+        waiting = new boolean[numRobots + 1];
+        stalled = new boolean[numRobots + 1];
+        finished = new boolean[numRobots + 1];
+        staying = new boolean[numRobots + 1];
+        siphonFrom = new Robot[numRobots + 1];
+        siphonAmount = new int[numRobots + 1];
+        robotsRunning = numRobots;
+        int[][] corners = { {0, 0}, {size - 1, size - 1}, {size - 1, 0}, {0, size - 1} };
+        for (int id = 1; id <= numRobots; id++) {
+            int x, y;
+            if (id <= corners.length && !robotIndex.contains(corners[id - 1][0], corners[id - 1][1])) {
+                x = corners[id - 1][0];
+                y = corners[id - 1][1];
+            } else {
+                do {
+                    x = rand.nextInt(size);
+                    y = rand.nextInt(size);
+                } while (robotIndex.contains(x, y));
+            }
+            robots[id] = new Robot(this, id, x, y, (id % 2 == 1) ? "red" : "blue", false);
+            robotIndex.add(x, y);
+            indexedCells[id] = cell(x, y);
+            robotsAt.put(cell(x, y), robots[id]);
+        }
+        publishSnapshot();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * How many barrels the world starts with, and how many appear each turn on average
+     * (eg. 0.2 is one barrel every five turns, 3.5 is three or four every turn).
+     * Must be set before start().
+     */
+    public void setFuelSupply(int initialBarrels, double barrelsPerTurn) {
+        this.initialBarrels = initialBarrels;
+        this.barrelsPerTurn = barrelsPerTurn;
     }
 
     /**
@@ -32,39 +164,217 @@ public class World {
      */
     public void reset() {
         availableFuel.clear();
-        for (int i = 1; i <= 2; i++) {
-            robots[i].updatePending();
-            robots[i].cancel();
+        takenBarrels.clear();
+        turnLock.lock();
+        try {
+            for (int i = 1; i < robots.length; i++) {
+                robots[i].updatePending();
+                robots[i].cancel();
+            }
+            barrelIndex.clear();
+            turn++;
+            turnAdvanced.signalAll();
+        } finally {
+            turnLock.unlock();
         }
     }
 
+    /**
+     * In lockstep mode the robots' actions are only applied when the world is
+     * stepped (see step()), and the world only steps once all the robots have
+     * chosen their action. Must be set before start().
+     */
+    public void setLockstep(boolean lockstep) {
+        this.lockstep = lockstep;
+    }
+
+    public boolean isLockstep() {
+        return lockstep;
+    }
+
+    /**
+     * How many sensor readings a robot may take between actions before it misses the turn
+     * (see Robot.checkSensor), or 0 for no limit. This is not a rule of the game, so it is 0
+     * unless the Simulator is asked for one. Must be set before start().
+     */
+    public void setSensorBudget(int readsPerAction) {
+        this.sensorBudget = readsPerAction;
+    }
+
+    public int getSensorBudget() {
+        return sensorBudget;
+    }
+
+    public int getTurn() {
+        return turn;
+    }
+
     public Set<Point> getAvailableFuel() {
         return availableFuel;
     }
 
+    /**
+     * The world as of the last update (or the start of the match). A new snapshot
+     * replaces this one each update, and is never changed once made, so it can be read
+     * from any thread without locking.
+     */
+    public WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Called after every update, with the robots as they are now
+     */
+    private void publishSnapshot() {
+        WorldSnapshot previous = snapshot;
+        RobotSnapshot[] states = new RobotSnapshot[robots.length];
+        for (int i = 1; i < robots.length; i++) {
+            states[i] = robots[i].snapshot((previous == null) ? null : previous.getRobot(i), eliminated[i]);
+        }
+        // most turns no barrels are taken or added
+        GridView barrels = (previous != null && !barrelsChanged) ? previous.barrelGrid() : barrelIndex.view();
+        GridView robotCells = (previous != null && !robotsMoved) ? previous.robotGrid() : robotIndex.view();
+        barrelsChanged = false;
+        robotsMoved = false;
+        snapshot = new WorldSnapshot(turn, size, states, barrels, robotCells);
+    }
+
+    /**
+     * Removes the barrel at (x, y) if there is one, returning whether there was.
+     * Robots still sense the barrel until the end of the turn.
+     */
+    boolean takeBarrel(int x, int y) {
+        Point barrel = new Point(x, y);
+        if (availableFuel.remove(barrel)) {
+            takenBarrels.add(barrel);
+            return true;
+        }
+        return false;
+    }
+
     public void updateWorld() {
-        addFuel(false);
-        for (int i = 1; i <= 2; i++) {
-            robots[i].updatePending();
+        turnLock.lock();
+        try {
+            for (Point barrel; (barrel = takenBarrels.poll()) != null; ) {
+                barrelIndex.remove(barrel.x, barrel.y);
+                barrelsChanged = true;
+                if (recorder != null) {
+                    recorder.barrelRemoved(cell(barrel.x, barrel.y));
+                }
+            }
+            addFuel();
+            resolveMoves();
+            resolveSiphons();
+            for (int i = 1; i < robots.length; i++) {
+                if (!eliminated[i]) {
+                    robots[i].updatePending();
+                }
+            }
+            updateRobotIndex();
+            eliminateRobotsOutOfFuel();
+            turn++;
+            publishSnapshot();
+            if (recorder != null) {
+                recorder.recordTick(snapshot);
+            }
+            Arrays.fill(waiting, false);
+            turnAdvanced.signalAll();
+        } finally {
+            turnLock.unlock();
         }
     }
 
+    /**
+     * Lockstep only: waits until every robot has chosen its action for this turn
+     * (or finished its program), then updates the world.
+     * A robot that takes longer than stallMillis to act (eg. stuck in a loop with
+     * no actions) misses the turn, just as it would if the world were updated on a timer,
+     * and later turns don't wait for it again until it next acts.
+     */
+    public void step(long stallMillis) {
+        turnLock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+            while (!allRobotsReady() && remaining > 0) {
+                remaining = robotReady.awaitNanos(remaining);
+            }
+            for (int i = 1; i < robots.length; i++) {
+                stalled[i] = !waiting[i] && !finished[i];
+            }
+            updateWorld();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            turnLock.unlock();
+        }
+    }
+
+    /**
+     * Called by a robot once it has chosen its action.
+     * Blocks until the world has applied it (by updateWorld(), or by step() in lockstep mode)
+     * or been reset, and wakes as soon as it has. Returns at once if the world applied it
+     * before the robot got here, so the robot doesn't wait out a turn it has already had.
+     */
+    void awaitTurn(Robot robot) {
+        turnLock.lock();
+        try {
+            if (!robot.hasStagedAction()) {
+                return;
+            }
+            markReady(robot);
+            while (robot.hasStagedAction()) {
+                turnAdvanced.awaitUninterruptibly();
+            }
+        } finally {
+            turnLock.unlock();
+        }
+    }
+
+    /**
+     * Called by a robot that is giving up this turn without acting (see Robot.checkSensor).
+     * Blocks until the next turn starts.
+     */
+    void missTurn(Robot robot) {
+        turnLock.lock();
+        try {
+            int current = turn;
+            markReady(robot);
+            while (turn == current) {
+                turnAdvanced.awaitUninterruptibly();
+            }
+        } finally {
+            turnLock.unlock();
+        }
+    }
+
+    /**
+     * In lockstep mode, the world can step once every robot is ready. Must hold the turn lock.
+     */
+    private void markReady(Robot robot) {
+        int id = robot.getId();
+        waiting[id] = true;
+        stalled[id] = false;
+        robotReady.signalAll();
+    }
+
     public void loadRobotProgram(int id, File code) {
         try{
-            Scanner scanner = new Scanner(code);
-            ProgramNode prog = new Parser().parse(scanner);
-            if (prog == null) {
+            ProgramCache.Entry prog = ProgramCache.load(code);
+            if (prog.program == null) {
                 System.out.println("Robot " + id + " was given an empty program and ignored it.");
             }
             else {
                 System.out.println("Robot " + id + " now has program: ");
-                System.out.println(prog);
-                robots[id].setProgram(prog);
+                System.out.println(prog.program);
+                robots[id].setProgram(prog.optimized);
             }
         }
-        catch (FileNotFoundException e) {
+        catch (NoSuchFileException e) {
             System.out.println("Robot program source file not found");
         }
+        catch (IOException e) {
+            System.out.println("Can't read robot program: " + e.getMessage());
+        }
         catch (ParserFailureException e) {
             System.out.println("Parser error:");
             System.out.println(e.getMessage());
@@ -74,56 +384,288 @@ public class World {
     public void start() {
         // add some initial fuel
         if (availableFuel.isEmpty()) {
-            addFuel(true);
-            addFuel(true);
-        }
-        new Thread(()-> {
-                try {robots[1].run();}
-                catch (RobotInterruptedException e) {}
-                robots[1].setFinished(true);
-        }).start();
-        /*		new Thread(new Runnable() {
-			@Override
-			public void run() {
-                        try {
-                        robots[1].run();
-                        } catch (RobotInterruptedException e) {
-                        }
-                        robots[1].setFinished(true);
-			}
-                        }).start();
-        */
-        new Thread(() -> {
-                try {
-                    robots[2].run();
-                } catch (RobotInterruptedException e) {
-                }
-                robots[2].setFinished(true);
-        }).start();
+            for (int i = 0; i < initialBarrels; i++) {
+                addBarrel();
+            }
+        }
+        publishSnapshot();
+        if (recorder != null) {
+            recorder.recordTick(snapshot);
+        }
+        for (int i = 1; i < robots.length; i++) {
+            Robot robot = robots[i];
+            robotExecutor.execute(() -> {
+                    try {
+                        robot.run();
+                    } catch (RobotInterruptedException e) {
+                    }
+                    finishRobot(robot);
+            });
+        }
+    }
+
+    /**
+     * Records every turn of the match, from start() on. The caller closes the recorder
+     * once the match is over. Must be set before start().
+     */
+    public void setRecorder(MatchRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Shows a turn from a recorded match instead of running the robots:
+     * puts the robots and barrels where they were on that turn, with the robots
+     * animating from the previous frame shown.
+     */
+    public void showReplayFrame(ReplayFrame frame) {
+        for (int i = 1; i < robots.length; i++) {
+            robots[i].replayTo(frame.x[i], frame.y[i], frame.dir[i], frame.fuel[i], frame.shield[i]);
+            eliminated[i] = frame.eliminated[i];
+        }
+        availableFuel.clear();
+        barrelIndex.clear();
+        GridIndex barrels = frame.barrels;
+        for (int i = 0; i < barrels.count(); i++) {
+            availableFuel.add(new Point(barrels.cell(i) % size, barrels.cell(i) / size));
+            barrelIndex.add(barrels.cell(i) % size, barrels.cell(i) / size);
+        }
+        barrelsChanged = true;
+        turn = frame.turn;
+        publishSnapshot();
+    }
+
+    /**
+     * What runs the robot programs, one task per robot, each for the whole match.
+     * The executor must give every robot its own thread (the robots block on each other),
+     * and must not run the task in the caller. Must be set before start().
+     * The default is shared by every world: platform threads, or virtual threads if the
+     * robot.threads system property is "virtual" (see createRobotExecutor).
+     */
+    public void setRobotExecutor(Executor executor) {
+        robotExecutor = executor;
+    }
+
+    /**
+     * A pool of daemon threads, reused from one match to the next. Or, if the robot.threads
+     * system property is "virtual" and this is Java 21 or later, a new virtual thread for each robot
+     * (found by reflection, so this still builds on Java 17), so thousands of matches can run
+     * at once without an OS thread for every robot. A program that computes without acting
+     * never has its virtual thread taken off its carrier, so the interpreters give it up now
+     * and then while looping (see Robot.checkCancelled).
+     */
+    private static Executor createRobotExecutor() {
+        if ("virtual".equals(System.getProperty("robot.threads"))) {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads need Java 21 or later, running the robots on platform threads");
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "robot-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+        });
+    }
+
+    private boolean allRobotsReady() {
+        for (int i = 1; i < robots.length; i++) {
+            if (!waiting[i] && !stalled[i] && !finished[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void finishRobot(Robot robot) {
+        turnLock.lock();
+        try {
+            robot.setFinished(true);
+            finished[robot.getId()] = true;
+            robotReady.signalAll();
+        } finally {
+            turnLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the robots' entries in the position index to where they are now.
+     * All the old cells are cleared before any new ones are filled,
+     * since one robot may have moved into the cell another just left.
+     */
+    private void updateRobotIndex() {
+        for (int i = 1; i < robots.length; i++) {
+            int cell = cell(robots[i].getX(), robots[i].getY());
+            if (!eliminated[i] && cell != indexedCells[i]) {
+                robotIndex.remove(indexedCells[i] % size, indexedCells[i] / size);
+                robotsAt.remove(indexedCells[i]);
+            }
+        }
+        for (int i = 1; i < robots.length; i++) {
+            int cell = cell(robots[i].getX(), robots[i].getY());
+            if (!eliminated[i] && cell != indexedCells[i]) {
+                robotIndex.add(robots[i].getX(), robots[i].getY());
+                robotsAt.put(cell, robots[i]);
+                indexedCells[i] = cell;
+                robotsMoved = true;
+            }
+        }
+    }
+
+    /**
+     * Takes robots that have run out of fuel out of the world, stopping their programs
+     */
+    private void eliminateRobotsOutOfFuel() {
+        for (int i = 1; i < robots.length; i++) {
+            if (!eliminated[i] && robots[i].isOutOfFuel()) {
+                eliminated[i] = true;
+                finished[i] = true;
+                robotsRunning--;
+                robotIndex.remove(indexedCells[i] % size, indexedCells[i] / size);
+                robotsAt.remove(indexedCells[i]);
+                robotsMoved = true;
+                robots[i].cancel();
+            }
+        }
     }
 
     public Robot getRobot(int id) {
-        if (id <= 0 || id > robots.length) {
+        if (id <= 0 || id >= robots.length) {
             return null;
         }
         return robots[id];
     }
 
-    /** Returns the opponent robot of the argument */
-    public Robot getOtherRobot(Robot robot) {
-        if (robot == robots[2])
-            return robots[1];
-        if (robot == robots[1])
-            return robots[2];
-        return null;
+    public int getNumRobots() {
+        return robots.length - 1;
+    }
+
+    /**
+     * The number of robots that have not yet run out of fuel
+     */
+    public int getRobotsRunning() {
+        return robotsRunning;
     }
 
-    private void addFuel(boolean definitely) {
-        if (definitely || rand.nextDouble() < 0.2) {
-            int x = rand.nextInt(12);
-            int y = rand.nextInt(12);
-            Point fuel = new Point(x, y);
-            availableFuel.add(fuel);
+    /**
+     * Whether the robot has run out of fuel and been taken out of the world
+     */
+    public boolean isEliminated(int id) {
+        return eliminated[id];
+    }
+
+    /**
+     * The robot at (x, y) as of the start of the turn, or null
+     */
+    Robot getRobotAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            return null;
+        }
+        return robotsAt.get(cell(x, y));
+    }
+
+    /**
+     * Once every robot has acted, works out which of the robots moving this turn can move,
+     * in a way that doesn't depend on the robots' ids (or which thread acted first):
+     * robots moving into the same cell all stay where they are, as do two robots trying to swap cells.
+     * Then a robot moving into a cell whose robot is staying has to stay too, and so on until no more do.
+     * So a robot can follow another into the cell it is leaving.
+     */
+    private void resolveMoves() {
+        movingInto.clear();
+        for (int i = 1; i < robots.length; i++) {
+            if (isMoving(i)) {
+                movingInto.merge(targetCell(i), 1, Integer::sum);
+            }
+        }
+        for (int i = 1; i < robots.length; i++) {
+            staying[i] = !isMoving(i);
+            if (!staying[i]) {
+                Robot other = robotsAt.get(targetCell(i));
+                staying[i] = movingInto.get(targetCell(i)) > 1
+                    || (other != null && targetCell(other.getId()) == indexedCells[i]);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < robots.length; i++) {
+                if (!staying[i]) {
+                    Robot other = robotsAt.get(targetCell(i));
+                    if (other != null && staying[other.getId()]) {
+                        staying[i] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (int i = 1; i < robots.length; i++) {
+            if (isMoving(i) && staying[i]) {
+                robots[i].blockMove();
+            }
+        }
+    }
+
+    private boolean isMoving(int id) {
+        return !eliminated[id] && targetCell(id) != indexedCells[id];
+    }
+
+    private int targetCell(int id) {
+        return cell(robots[id].getTargetX(), robots[id].getTargetY());
+    }
+
+    /**
+     * Once every robot has acted, moves fuel from the robots being siphoned to the robots siphoning them.
+     * Every amount is worked out before any fuel moves, so the amounts don't depend on the robots' ids either.
+     */
+    private void resolveSiphons() {
+        for (int i = 1; i < robots.length; i++) {
+            siphonFrom[i] = eliminated[i] ? null : robots[i].siphonTarget();
+            if (siphonFrom[i] != null) {
+                siphonAmount[i] = siphonFrom[i].siphonableFuel();
+            }
+        }
+        for (int i = 1; i < robots.length; i++) {
+            if (siphonFrom[i] != null) {
+                robots[i].siphon(siphonAmount[i]);
+            }
+        }
+        for (int i = 1; i < robots.length; i++) {
+            if (siphonFrom[i] != null) {
+                siphonFrom[i].loseFuel(siphonAmount[i]);
+            }
+        }
+    }
+
+    private int cell(int x, int y) {
+        return y * size + x;
+    }
+
+    /**
+     * Adds this turn's new barrels: the whole part of barrelsPerTurn,
+     * plus one more with the fractional part as the chance
+     */
+    private void addFuel() {
+        int count = (int) barrelsPerTurn;
+        if (rand.nextDouble() < barrelsPerTurn - count) {
+            count++;
+        }
+        for (int i = 0; i < count; i++) {
+            addBarrel();
+        }
+    }
+
+    private void addBarrel() {
+        int x = rand.nextInt(size);
+        int y = rand.nextInt(size);
+        Point fuel = new Point(x, y);
+        if (availableFuel.add(fuel)) {
+            barrelIndex.add(x, y);
+            barrelsChanged = true;
+            if (recorder != null) {
+                recorder.barrelAdded(cell(x, y));
+            }
         }
     }
 	
@@ -3,8 +3,9 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.GraphicsConfiguration;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -21,18 +22,32 @@ import javax.swing.JOptionPane;
 public class WorldComponent extends JComponent {
 
     public static final int GRID_SIZE = 50;
-    private static final int ANIMATION_DELAY = 20;
-    private static final int WORLD_UPDATE_DELAY = 33;
+    private static final int VIEW_SIZE = 600;      // largest the world is drawn, in pixels
+    private static final double MIN_GRID_PIXELS = 4; // grid lines are left out when cells get smaller than this
+    private static final int ANIMATION_DELAY = 16;  // about 60 frames a second
     private BufferedImage fuelImage;
     private World world;
-    private Timer timer;
-
-    private int tick = 0;
+    private final int worldSize;
+    private final double scale;  // worlds too big to fit VIEW_SIZE at GRID_SIZE are shrunk to fit
+    private Timer timer;  // draws the frames
+    private GameLoop gameLoop;  // plays the turns
+    private double turnsPerSecond = GameLoop.NORMAL_SPEED;
+    private BufferedImage gridImage;  // the background and grid lines, drawn once at the size they are shown
+    private final FrameStats frameStats = new FrameStats();
+    private boolean showFrameStats = false;
+    private static final BasicStroke GRID_STROKE = new BasicStroke(2);
 
     public WorldComponent() {
+        this(World.SIZE);
+    }
+
+    public WorldComponent(int worldSize) {
         super();
-        world = new World();
-        setPreferredSize(new Dimension(600, 600));
+        this.worldSize = worldSize;
+        world = new World(worldSize);
+        scale = Math.min(1, (double) VIEW_SIZE / (worldSize * GRID_SIZE));
+        int pixels = (int) Math.round(worldSize * GRID_SIZE * scale);
+        setPreferredSize(new Dimension(pixels, pixels));
 
         try {
             fuelImage = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"fuel.png"));
@@ -42,84 +57,274 @@ public class WorldComponent extends JComponent {
     }
 
     public void start() {
+        gameLoop = GameLoop.forWorld(world, Simulator.DEFAULT_STALL_MILLIS);
+        gameLoop.setTurnsPerSecond(turnsPerSecond);
+        world.start();
+        gameLoop.start();
         timer = new Timer();
         timer.schedule(new AnimationTask(), 0, ANIMATION_DELAY);
-        world.start();
     }
 
     public void reset() {
         if (timer != null)
             timer.cancel();
+        if (gameLoop != null)
+            gameLoop.stop();
+        gameLoop = null;
         world.reset();
-        world = new World();
+        world = new World(worldSize);
+    }
+
+    public int getWorldSize() {
+        return worldSize;
+    }
+
+    /**
+     * Plays back a recorded match instead of running the robots.
+     * The recording must be of a world the same size as this one.
+     */
+    public void replay(MatchReplay replay) {
+        reset();
+        world = new World(worldSize, replay.numRobots());
+        world.showReplayFrame(replay.frame(0));
+        int[] frame = { 0 };
+        gameLoop = new GameLoop(() -> {
+                if (++frame[0] >= replay.ticks()) {
+                    return false;
+                }
+                world.showReplayFrame(replay.frame(frame[0]));
+                return true;
+        });
+        gameLoop.setTurnsPerSecond(turnsPerSecond);
+        gameLoop.start();
+        timer = new Timer();
+        timer.schedule(new ReplayTask(), 0, ANIMATION_DELAY);
+    }
+
+    /**
+     * How many turns a second the game (or replay) goes at, from NORMAL_SPEED
+     * up to GameLoop.AS_FAST_AS_POSSIBLE. Can be changed while it is running.
+     */
+    public void setTurnsPerSecond(double turnsPerSecond) {
+        this.turnsPerSecond = turnsPerSecond;
+        if (gameLoop != null) {
+            gameLoop.setTurnsPerSecond(turnsPerSecond);
+        }
     }
 
     public void loadRobotProgram(int rob, File code) {
         world.loadRobotProgram(rob, code);
     }
 
+    /**
+     * Turns on or off showing how fast the world is being drawn
+     */
+    public void setShowFrameStats(boolean show) {
+        showFrameStats = show;
+        repaint();
+    }
+
+    /**
+     * How fast the world is being drawn
+     */
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
-        Graphics2D g2d = (Graphics2D) g;
+        long start = System.nanoTime();
+        Graphics2D g2d = (Graphics2D) g.create();
+        if (GRID_SIZE * scale >= MIN_GRID_PIXELS) {
+            g2d.drawImage(getGridImage(), 0, 0, null);
+        }
+
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        // only turning robots and shrunk worlds need it, and bilinear is plenty for those
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.scale(scale, scale);
 
-        g2d.setColor(Color.BLACK);
-        g2d.setStroke(new BasicStroke(2));
+        // everything is drawn from the one snapshot, however the world changes meanwhile
+        WorldSnapshot snapshot = world.getSnapshot();
+        double time = getTimeRatio(snapshot);
+        for (int i = 0; i < snapshot.getNumBarrels(); i++) {
+            int cell = snapshot.getBarrelCell(i);
+            int x = (cell % worldSize) * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
+            int y = (cell / worldSize) * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
+            g2d.drawImage(fuelImage, x, y, null);
+        }
 
-        for (int i = 0; i <= World.SIZE; i++) {
-            Line2D hline = new Line2D.Double(0, i * GRID_SIZE, 600, i * GRID_SIZE);
-            Line2D vline = new Line2D.Double(i * GRID_SIZE, 0, i * GRID_SIZE, 600);
-            g2d.draw(hline);
-            g2d.draw(vline);
+        for (int i = 1; i <= snapshot.getNumRobots(); i++) {
+            RobotSnapshot state = snapshot.getRobot(i);
+            if (!(state.eliminated && state.fuelAt(time) <= 0))
+                world.getRobot(i).draw(g2d, state, time);
         }
+        g2d.dispose();
 
-        for (Point fuel : world.getAvailableFuel()) {
-            int x = fuel.x * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
-            int y = fuel.y * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
-            g2d.drawImage(fuelImage, x, y, null);
+        frameStats.record(start, System.nanoTime());
+        if (showFrameStats) {
+            g.setColor(Color.BLUE);
+            g.drawString(frameStats.toString(), 5, 15);
         }
+    }
 
-        for (int i = 1; i <= 2; i++) {
-            Robot rob;
-            if ((rob = world.getRobot(i)) != null)
-                rob.draw(g2d, getTimeRatio());
+    /**
+     * The background and grid lines never change, so they are drawn into an image once
+     * and the image is copied onto the screen each frame (an opaque image, which is
+     * the quickest kind to copy)
+     */
+    private BufferedImage getGridImage() {
+        if (gridImage == null) {
+            int pixels = (int) Math.round(worldSize * GRID_SIZE * scale);
+            GraphicsConfiguration config = getGraphicsConfiguration();
+            gridImage = (config != null) ? config.createCompatibleImage(pixels, pixels, Transparency.OPAQUE)
+                : new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = gridImage.createGraphics();
+            g2d.setColor(getBackground());
+            g2d.fillRect(0, 0, pixels, pixels);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.scale(scale, scale);
+            g2d.setColor(Color.BLACK);
+            g2d.setStroke(GRID_STROKE);
+            int extent = worldSize * GRID_SIZE;
+            Line2D.Double line = new Line2D.Double();
+            for (int i = 0; i <= worldSize; i++) {
+                line.setLine(0, i * GRID_SIZE, extent, i * GRID_SIZE);
+                g2d.draw(line);
+                line.setLine(i * GRID_SIZE, 0, i * GRID_SIZE, extent);
+                g2d.draw(line);
+            }
+            g2d.dispose();
         }
+        return gridImage;
     }
 
     /**
-     * what fraction of the current "frame" are we at
-     * (a frame lasts WORLD_UPDATE_DELAY ticks)
+     * what fraction of the way through the turn that led to the snapshot are we at
+     * (all the way before the game starts)
      */
-    private double getTimeRatio() {
-        int base = tick / WORLD_UPDATE_DELAY;
-        return (double) tick / WORLD_UPDATE_DELAY - base;  
+    private double getTimeRatio(WorldSnapshot snapshot) {
+        return (gameLoop == null) ? 1 : gameLoop.getTimeRatio(snapshot.time);
     }
 
-    private class AnimationTask extends TimerTask {
+    /**
+     * Whether the robot's fuel has been shown running out
+     */
+    private boolean isShownDead(WorldSnapshot snapshot, int id) {
+        return snapshot.getRobot(id).fuelAt(getTimeRatio(snapshot)) <= 0;
+    }
 
-        public AnimationTask() {
-            tick = 0;
-        }
+    /**
+     * Draws the world as the game loop plays it, and stops the game once it is won
+     */
+    private class AnimationTask extends TimerTask {
 
         @Override
         public void run() {
             // test for any deaths
-            boolean r1dead = world.getRobot(1).isDead();
-            boolean r2dead = world.getRobot(2).isDead();
-            if (r1dead || r2dead) {
-                timer.cancel();
-                timer = null;
-                String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
-                JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
-                return;
+            WorldSnapshot snapshot = world.getSnapshot();
+            if (snapshot.getNumRobots() == 2) {
+                boolean r1dead = isShownDead(snapshot, 1);
+                boolean r2dead = isShownDead(snapshot, 2);
+                if (r1dead || r2dead) {
+                    timer.cancel();
+                    timer = null;
+                    gameLoop.stop();
+                    String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
+                    JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
+                    return;
+                }
+            } else {
+                // free for all: play on until at most one robot is left
+                RobotSnapshot survivor = null;
+                int alive = 0;
+                for (int i = 1; i <= snapshot.getNumRobots(); i++) {
+                    if (!isShownDead(snapshot, i)) {
+                        survivor = snapshot.getRobot(i);
+                        alive++;
+                    }
+                }
+                if (alive <= 1) {
+                    timer.cancel();
+                    timer = null;
+                    gameLoop.stop();
+                    String msg = (survivor == null) ? "All robots ran out of fuel!"
+                        : "Robot " + survivor.id + " (" + survivor.colour + ") is the last one standing!";
+                    JOptionPane.showMessageDialog(null, msg);
+                    return;
+                }
             }
 
-            tick++;
-            if (tick % WORLD_UPDATE_DELAY == 0)
-                world.updateWorld();
             repaint();
         }
     }
+
+    /**
+     * Draws the turns of a recording as the game loop shows them, one after another
+     */
+    private class ReplayTask extends TimerTask {
+
+        @Override
+        public void run() {
+            repaint();
+            if (!gameLoop.isRunning()) {
+                cancel();  // after drawing the last turn
+            }
+        }
+    }
+}
+
+/**
+ * How long the world takes to draw, and how often it is drawn:
+ * frames per second over the last second, and the average and worst
+ * time to draw a frame over the last FRAMES frames.
+ * Only used by the thread that paints.
+ */
+class FrameStats {
+    static final int FRAMES = 120;
+
+    private final long[] paintNanos = new long[FRAMES];
+    private int frames = 0;  // recorded so far
+    private long secondStart = 0;
+    private int framesThisSecond = 0;
+    private int fps = 0;
+
+    void record(long start, long end) {
+        paintNanos[frames++ % FRAMES] = end - start;
+        if (end - secondStart >= 1_000_000_000L) {
+            fps = framesThisSecond;
+            framesThisSecond = 0;
+            secondStart = end;
+        }
+        framesThisSecond++;
+    }
+
+    /**
+     * Frames drawn in the last whole second
+     */
+    int fps() {
+        return fps;
+    }
+
+    double averageMillis() {
+        int n = Math.min(frames, FRAMES);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += paintNanos[i];
+        }
+        return (n == 0) ? 0 : total / 1e6 / n;
+    }
+
+    double worstMillis() {
+        long worst = 0;
+        for (int i = 0; i < Math.min(frames, FRAMES); i++) {
+            worst = Math.max(worst, paintNanos[i]);
+        }
+        return worst / 1e6;
+    }
+
+    public String toString() {
+        return String.format("%d fps, %.2f ms per frame (worst %.2f ms)", fps(), averageMillis(), worstMillis());
+    }
 }
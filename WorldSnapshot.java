@@ -0,0 +1,103 @@
+/**
+ * The state of a world as of one update: where each robot was at the start of the turn and
+ * where it is now, what it did, and where the barrels are.
+ *
+ * The world makes a new snapshot after every update (see World.getSnapshot()) and never changes it,
+ * so anything on another thread (drawing, recording, statistics, the robots' sensors) can read
+ * a whole turn at once without locking the world and without seeing half of an update.
+ */
+public class WorldSnapshot {
+
+    public final int turn;
+    public final int size;
+    public final long time;  // System.nanoTime() when the snapshot was taken
+    private final RobotSnapshot[] robots;  // robots[0] is unused, so robot ids start at 1
+    private final GridView barrels;
+    private final GridView robotCells;  // the cells of the robots still in the world
+
+    /**
+     * The robots array is kept, not copied, so the caller must not change it afterwards
+     */
+    WorldSnapshot(int turn, int size, RobotSnapshot[] robots, GridView barrels, GridView robotCells) {
+        this.turn = turn;
+        this.size = size;
+        this.time = System.nanoTime();
+        this.robots = robots;
+        this.barrels = barrels;
+        this.robotCells = robotCells;
+    }
+
+    public int getNumRobots() {
+        return robots.length - 1;
+    }
+
+    public RobotSnapshot getRobot(int id) {
+        return robots[id];
+    }
+
+    public int getNumBarrels() {
+        return barrels.count();
+    }
+
+    /**
+     * The cell (y * size + x) of the ith barrel, in the same order as the world's barrel index
+     */
+    public int getBarrelCell(int i) {
+        return barrels.cell(i);
+    }
+
+    /**
+     * The barrels, for the robots' sensors to search
+     * (and to share with the next snapshot if the barrels haven't changed)
+     */
+    GridView barrelGrid() {
+        return barrels;
+    }
+
+    /**
+     * Where the robots still in the world are, for the robots' sensors to search
+     * (and to share with the next snapshot if none have moved)
+     */
+    GridView robotGrid() {
+        return robotCells;
+    }
+}
+
+/**
+ * One robot in a WorldSnapshot: its position, direction and fuel at the start of the turn
+ * (from...) and after it (x, y, dir, fuel), and the action taken in between.
+ * Directions are 0 = north, 1 = west, 2 = south, 3 = east; actions are Robot.ACTION_...,
+ * or 0 if the robot didn't act.
+ */
+class RobotSnapshot {
+    final int id;
+    final String colour;
+    final int fromX, fromY, fromDir, fromFuel;
+    final int x, y, dir, fuel;
+    final int action;
+    final boolean shield, eliminated;
+
+    RobotSnapshot(int id, String colour, int fromX, int fromY, int fromDir, int fromFuel,
+                  int x, int y, int dir, int fuel, int action, boolean shield, boolean eliminated) {
+        this.id = id;
+        this.colour = colour;
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.fromDir = fromDir;
+        this.fromFuel = fromFuel;
+        this.x = x;
+        this.y = y;
+        this.dir = dir;
+        this.fuel = fuel;
+        this.action = action;
+        this.shield = shield;
+        this.eliminated = eliminated;
+    }
+
+    /**
+     * The fuel shown the given fraction of the way through the turn
+     */
+    double fuelAt(double time) {
+        return fromFuel * (1 - time) + fuel * time;
+    }
+}